@@ -28,6 +28,7 @@ dependencies {
     implementation("org.springframework.boot:spring-boot-starter-data-jpa")
     implementation("org.springframework.boot:spring-boot-starter-security")
     implementation("org.springframework.boot:spring-boot-starter-cache")
+    implementation("com.github.ben-manes.caffeine:caffeine") // Caché en memoria acotada (versión gestionada por Spring Boot)
     implementation("org.springframework.boot:spring-boot-starter-validation")
     implementation("org.springframework.boot:spring-boot-starter-mail")
     
@@ -47,6 +48,11 @@ dependencies {
     
     // Image processing
     implementation("org.imgscalr:imgscalr-lib:4.2")
+
+    // Testing
+    testImplementation("org.springframework.boot:spring-boot-starter-test")
+    testImplementation("com.icegreen:greenmail-junit5:2.1.2") // Servidor SMTP en memoria para los tests de email
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 tasks.withType<JavaCompile> {
@@ -63,4 +69,20 @@ tasks.test {
     // para ahorranos hacer esto
     //./gradlew test -Pspring.profiles.active=dev
     systemProperty("spring.profiles.active", project.findProperty("spring.profiles.active") ?: "dev")
+    // Los benchmarks son lentos: van aparte con ./gradlew benchmark
+    useJUnitPlatform {
+        excludeTags("benchmark")
+    }
+}
+
+tasks.register<Test>("benchmark") {
+    description = "Ejecuta los tests etiquetados como benchmark"
+    group = "verification"
+    testClassesDirs = sourceSets["test"].output.classesDirs
+    classpath = sourceSets["test"].runtimeClasspath
+    systemProperty("spring.profiles.active", project.findProperty("spring.profiles.active") ?: "dev")
+    useJUnitPlatform {
+        includeTags("benchmark")
+    }
+    testLogging.showStandardStreams = true
 }
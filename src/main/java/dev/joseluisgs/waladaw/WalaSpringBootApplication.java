@@ -1,5 +1,6 @@
 package dev.joseluisgs.waladaw;
 
+import dev.joseluisgs.waladaw.config.CacheProperties;
 import dev.joseluisgs.waladaw.data.DataFactory;
 import dev.joseluisgs.waladaw.models.Product;
 import dev.joseluisgs.waladaw.models.User;
@@ -16,7 +17,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.util.List;
 
-@EnableConfigurationProperties(StorageProperties.class)
+@EnableConfigurationProperties({StorageProperties.class, CacheProperties.class})
 @EnableCaching
 @EnableScheduling
 @SpringBootApplication
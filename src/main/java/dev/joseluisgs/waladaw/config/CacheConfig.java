@@ -0,0 +1,93 @@
+package dev.joseluisgs.waladaw.config;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import dev.joseluisgs.waladaw.repositories.ProductRepository;
+import dev.joseluisgs.waladaw.repositories.PurchaseRepository;
+import dev.joseluisgs.waladaw.repositories.UserRepository;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cachés acotadas con Caffeine en lugar de los ConcurrentMap sin límite de spring.cache.type=simple
+ * Cada caché tiene tamaño máximo, caducidad y estadísticas de aciertos/fallos/desalojos
+ */
+@Configuration
+public class CacheConfig {
+
+    public static final List<String> CACHES = List.of("productos", "compras", "usuarios");
+
+    @Bean
+    public CacheManager cacheManager(CacheProperties properties,
+                                     ProductRepository productRepository,
+                                     PurchaseRepository purchaseRepository,
+                                     UserRepository userRepository) {
+        CaffeineCacheManager manager = new CaffeineCacheManager();
+        // Solo las cachés conocidas, así una errata en un @Cacheable falla en vez de crear una caché sin configurar
+        manager.setCacheNames(CACHES);
+
+        // Cargadores para la recarga anticipada (refresh-ahead) de las entradas por id.
+        // Para el resto de claves (listas) devolver null hace que Caffeine descarte la entrada
+        manager.registerCustomCache("productos", build(properties.forCache("productos"),
+                key -> key instanceof Long id ? productRepository.findById(id).orElse(null) : null));
+        manager.registerCustomCache("compras", build(properties.forCache("compras"),
+                key -> key instanceof Long id ? purchaseRepository.findById(id).orElse(null) : null));
+        manager.registerCustomCache("usuarios", build(properties.forCache("usuarios"),
+                key -> switch (key) {
+                    case Long id -> userRepository.findById(id).orElse(null);
+                    case String email -> userRepository.findFirstByEmail(email);
+                    default -> null;
+                }));
+        return manager;
+    }
+
+    private static com.github.benmanes.caffeine.cache.Cache<Object, Object> build(CacheProperties.Spec spec,
+                                                                                CacheLoader<Object, Object> loader) {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .maximumSize(spec.getMaximumSize())
+                .recordStats();
+        if (spec.getExpireAfterWrite() != null) {
+            builder.expireAfterWrite(spec.getExpireAfterWrite());
+        }
+        if (spec.getExpireAfterAccess() != null) {
+            builder.expireAfterAccess(spec.getExpireAfterAccess());
+        }
+        if (spec.getRefreshAfterWrite() != null) {
+            builder.refreshAfterWrite(spec.getRefreshAfterWrite());
+            return builder.build(loader);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Estadísticas de todas las cachés para el panel de administración
+     *
+     * @param cacheManager gestor de cachés
+     * @return nombre de caché -> métricas
+     */
+    public static Map<String, Map<String, Object>> stats(CacheManager cacheManager) {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        for (String name : cacheManager.getCacheNames()) {
+            if (cacheManager.getCache(name) instanceof CaffeineCache cache) {
+                CacheStats s = cache.getNativeCache().stats();
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("size", cache.getNativeCache().estimatedSize());
+                m.put("hits", s.hitCount());
+                m.put("misses", s.missCount());
+                m.put("hitRate", s.hitRate());
+                m.put("evictions", s.evictionCount());
+                m.put("loads", s.loadCount());
+                result.put(name, m);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+package dev.joseluisgs.waladaw.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configuración de las cachés Caffeine de la aplicación
+ * Cada caché ("productos", "compras", "usuarios") puede definir su propio tamaño y caducidad:
+ * cache.caches.productos.maximum-size=10000
+ * cache.caches.productos.expire-after-write=10m
+ */
+@ConfigurationProperties(prefix = "cache")
+public class CacheProperties {
+
+    // Valores por defecto para cualquier caché que no tenga configuración propia
+    private Spec defaults = new Spec();
+
+    private Map<String, Spec> caches = new HashMap<>();
+
+    public Spec getDefaults() {
+        return defaults;
+    }
+
+    public void setDefaults(Spec defaults) {
+        this.defaults = defaults;
+    }
+
+    public Map<String, Spec> getCaches() {
+        return caches;
+    }
+
+    public void setCaches(Map<String, Spec> caches) {
+        this.caches = caches;
+    }
+
+    // Devuelve la configuración de una caché o la de por defecto
+    public Spec forCache(String name) {
+        return caches.getOrDefault(name, defaults);
+    }
+
+    public static class Spec {
+
+        // Número máximo de entradas
+        private long maximumSize = 1000;
+
+        // Caducidad desde que se escribe la entrada
+        private Duration expireAfterWrite;
+
+        // Caducidad desde el último acceso
+        private Duration expireAfterAccess;
+
+        // Recarga en segundo plano de las claves calientes pasado este tiempo
+        private Duration refreshAfterWrite;
+
+        public long getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        public Duration getExpireAfterWrite() {
+            return expireAfterWrite;
+        }
+
+        public void setExpireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+        }
+
+        public Duration getExpireAfterAccess() {
+            return expireAfterAccess;
+        }
+
+        public void setExpireAfterAccess(Duration expireAfterAccess) {
+            this.expireAfterAccess = expireAfterAccess;
+        }
+
+        public Duration getRefreshAfterWrite() {
+            return refreshAfterWrite;
+        }
+
+        public void setRefreshAfterWrite(Duration refreshAfterWrite) {
+            this.refreshAfterWrite = refreshAfterWrite;
+        }
+    }
+}
@@ -5,19 +5,22 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.LocaleResolver;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.i18n.CookieLocaleResolver;
 import org.springframework.web.servlet.i18n.LocaleChangeInterceptor;
-import org.springframework.web.servlet.i18n.SessionLocaleResolver;
 
+import java.time.Duration;
 import java.util.Locale;
 
 @Configuration
 public class I18nConfig implements WebMvcConfigurer {
 
+    // El idioma va en una cookie y no en la sesión: los visitantes anónimos no crean sesión
     @Bean
     public LocaleResolver localeResolver() {
-        SessionLocaleResolver slr = new SessionLocaleResolver();
-        slr.setDefaultLocale(new Locale("es"));
-        return slr;
+        CookieLocaleResolver clr = new CookieLocaleResolver("lang");
+        clr.setDefaultLocale(new Locale("es"));
+        clr.setCookieMaxAge(Duration.ofDays(365));
+        return clr;
     }
 
     @Bean
@@ -0,0 +1,18 @@
+package dev.joseluisgs.waladaw.config;
+
+import dev.joseluisgs.waladaw.security.UsuarioActualArgumentResolver;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    // Los controladores reciben el usuario identificado con @UsuarioActual User usuario
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new UsuarioActualArgumentResolver());
+    }
+}
@@ -1,21 +1,33 @@
 package dev.joseluisgs.waladaw.controllers;
 
+import dev.joseluisgs.waladaw.config.CacheConfig;
 import dev.joseluisgs.waladaw.models.Product;
 import dev.joseluisgs.waladaw.models.ProductCategory;
 import dev.joseluisgs.waladaw.models.Purchase;
 import dev.joseluisgs.waladaw.models.User;
+import dev.joseluisgs.waladaw.services.EmailOutboxService;
+import dev.joseluisgs.waladaw.services.FacturaExportService;
 import dev.joseluisgs.waladaw.services.ProductService;
 import dev.joseluisgs.waladaw.services.PurchaseService;
 import dev.joseluisgs.waladaw.services.UserService;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpHeaders;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.WebAsyncTask;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.time.Duration;
+import java.util.Map;
+
 @Controller
 @RequestMapping("/admin")
 @PreAuthorize("hasAuthority('ADMIN')")
@@ -30,6 +42,18 @@ public class AdminController {
     @Autowired
     private PurchaseService compraServicio;
 
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private EmailOutboxService emailOutboxService;
+
+    @Autowired
+    private FacturaExportService facturaExportService;
+
+    @Value("${facturas.export.timeout:30m}")
+    private Duration exportTimeout;
+
     @GetMapping("/dashboard")
     public String dashboard(Model model) {
         // Estadísticas generales
@@ -312,6 +336,28 @@ public class AdminController {
         return "admin/ventas";
     }
 
+    // Descarga en ZIP de las facturas del listado de ventas, con los mismos filtros
+    // Con su propio timeout async: solo esta descarga puede durar tanto, el resto usa el de por defecto
+    @GetMapping("/ventas/facturas.zip")
+    @ResponseBody
+    public WebAsyncTask<Void> exportarFacturas(
+            @org.springframework.web.bind.annotation.RequestParam(name = "desde", required = false) String desde,
+            @org.springframework.web.bind.annotation.RequestParam(name = "hasta", required = false) String hasta,
+            @org.springframework.web.bind.annotation.RequestParam(name = "propietarioId", required = false) Long propietarioId,
+            HttpServletResponse response) {
+
+        boolean hasFechas = desde != null && !desde.isEmpty() && hasta != null && !hasta.isEmpty();
+        java.time.LocalDate fechaDesde = hasFechas ? java.time.LocalDate.parse(desde) : null;
+        java.time.LocalDate fechaHasta = hasFechas ? java.time.LocalDate.parse(hasta) : null;
+
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=facturas.zip");
+        return new WebAsyncTask<>(exportTimeout.toMillis(), () -> {
+            facturaExportService.exportar(fechaDesde, fechaHasta, propietarioId, response.getOutputStream());
+            return null;
+        });
+    }
+
     @GetMapping("/usuarios/{id}")
     public String detalleUsuario(@PathVariable Long id, Model model, RedirectAttributes redirectAttributes) {
         try {
@@ -363,4 +409,18 @@ public class AdminController {
             return "redirect:/admin/productos";
         }
     }
+
+    // Estadísticas de las cachés (aciertos, fallos, desalojos) en JSON
+    @GetMapping("/cache/stats")
+    @ResponseBody
+    public Map<String, Map<String, Object>> cacheStats() {
+        return CacheConfig.stats(cacheManager);
+    }
+
+    // Estado de la cola de emails (profundidad, envíos en curso, fallidos) en JSON
+    @GetMapping("/outbox/stats")
+    @ResponseBody
+    public Map<String, Object> outboxStats() {
+        return emailOutboxService.stats();
+    }
 }
@@ -2,11 +2,10 @@ package dev.joseluisgs.waladaw.controllers;
 
 import dev.joseluisgs.waladaw.models.Product;
 import dev.joseluisgs.waladaw.models.User;
+import dev.joseluisgs.waladaw.security.UsuarioActual;
 import dev.joseluisgs.waladaw.services.FavoriteService;
-import dev.joseluisgs.waladaw.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
@@ -22,17 +21,8 @@ public class FavoriteController {
     @Autowired
     private FavoriteService favoriteService;
 
-    @Autowired
-    private UserService userService;
-
-    private User getAuthenticatedUser() {
-        String email = SecurityContextHolder.getContext().getAuthentication().getName();
-        return userService.buscarPorEmail(email);
-    }
-
     @GetMapping("/favoritos")
-    public String verFavoritos(Model model) {
-        User usuario = getAuthenticatedUser();
+    public String verFavoritos(Model model, @UsuarioActual User usuario) {
         List<Product> productosFavoritos = favoriteService.getFavoriteProducts(usuario);
         model.addAttribute("productos", productosFavoritos);
         return "app/favoritos/lista";
@@ -40,8 +30,7 @@ public class FavoriteController {
 
     @PostMapping("/favoritos/add/{productoId}")
     @ResponseBody
-    public ResponseEntity<Map<String, Object>> addFavorito(@PathVariable Long productoId) {
-        User usuario = getAuthenticatedUser();
+    public ResponseEntity<Map<String, Object>> addFavorito(@PathVariable Long productoId, @UsuarioActual User usuario) {
         Map<String, Object> response = new HashMap<>();
 
         try {
@@ -59,8 +48,7 @@ public class FavoriteController {
 
     @DeleteMapping("/favoritos/remove/{productoId}")
     @ResponseBody
-    public ResponseEntity<Map<String, Object>> removeFavorito(@PathVariable Long productoId) {
-        User usuario = getAuthenticatedUser();
+    public ResponseEntity<Map<String, Object>> removeFavorito(@PathVariable Long productoId, @UsuarioActual User usuario) {
         Map<String, Object> response = new HashMap<>();
 
         try {
@@ -78,8 +66,7 @@ public class FavoriteController {
 
     @GetMapping("/favoritos/check/{productoId}")
     @ResponseBody
-    public ResponseEntity<Map<String, Boolean>> checkFavorito(@PathVariable Long productoId) {
-        User usuario = getAuthenticatedUser();
+    public ResponseEntity<Map<String, Boolean>> checkFavorito(@PathVariable Long productoId, @UsuarioActual User usuario) {
         Map<String, Boolean> response = new HashMap<>();
         boolean isFavorite = favoriteService.isFavorite(usuario, productoId);
         response.put("isFavorite", isFavorite);
@@ -1,13 +1,45 @@
 package dev.joseluisgs.waladaw.controllers;
 
+import dev.joseluisgs.waladaw.services.ImageService;
+import dev.joseluisgs.waladaw.storage.StorageFileNotFoundException;
 import dev.joseluisgs.waladaw.storage.StorageService;
+import dev.joseluisgs.waladaw.utils.EnvioFichero;
+import dev.joseluisgs.waladaw.utils.ImagenVariante;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.MvcUriComponentsBuilder;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
 // Controlador para ficheros
@@ -17,12 +49,189 @@ public class FilesController {
     @Autowired
     StorageService storageService;
 
+    @Autowired
+    ImageService imageService;
+
+    // URL absoluta de un fichero subido, para guardarla en el producto o el usuario
+    // Se construye con la ruta y no con el método serveFile: así cambiar sus parámetros no rompe las subidas
+    public static String url(String filename) {
+        return MvcUriComponentsBuilder.fromController(FilesController.class)
+                .path("/files/{filename}").buildAndExpand(filename).encode().toUriString();
+    }
+
     // Devuelve el fichero
+    // Los nombres guardados son únicos (marca de tiempo + nombre) y nunca se sobrescriben,
+    // así que el navegador puede guardarlos indefinidamente sin volver a preguntar.
+    // Admite peticiones parciales (Range / If-Range, también varios rangos) para reanudar descargas
     @GetMapping("/files/{filename:.+}")
     @ResponseBody
-    public ResponseEntity<Resource> serveFile(@PathVariable String filename) {
-        Resource file = storageService.loadAsResource(filename);
-        return ResponseEntity.ok().body(file);
+    public ResponseEntity<StreamingResponseBody> serveFile(@PathVariable String filename,
+                                                           HttpServletRequest request,
+                                                           WebRequest webRequest) throws IOException {
+        return servir(storageService.loadAsResource(filename), request, webRequest);
+    }
+
+    // Versión redimensionada de una imagen (miniatura, tarjeta, detalle)
+    @GetMapping("/files/{variante:[a-z]+}/{filename:.+}")
+    @ResponseBody
+    public ResponseEntity<StreamingResponseBody> serveVariant(@PathVariable String variante,
+                                                              @PathVariable String filename,
+                                                              HttpServletRequest request,
+                                                              WebRequest webRequest) throws IOException {
+        try {
+            ImagenVariante.of(variante);
+        } catch (IllegalArgumentException e) {
+            throw new StorageFileNotFoundException("Unknown variant: " + variante);
+        }
+        Path fichero = storageService.loadVariant(filename, variante);
+        if (!Files.isReadable(fichero)) {
+            // Aún no se ha generado (o no es una imagen): el original, sin cachear la redirección,
+            // y si es una imagen se encola su generación para que la redirección sea temporal de verdad
+            if (MediaTypeFactory.getMediaType(filename).map(t -> "image".equals(t.getType())).orElse(false)
+                    && Files.isReadable(storageService.load(filename))) {
+                imageService.generarDerivados(filename);
+            }
+            return ResponseEntity.status(HttpStatus.FOUND)
+                    .location(URI.create("/files/" + UriUtils.encodePathSegment(filename, StandardCharsets.UTF_8)))
+                    .cacheControl(CacheControl.noStore())
+                    .build();
+        }
+        return servir(new FileSystemResource(fichero), request, webRequest);
+    }
+
+    private ResponseEntity<StreamingResponseBody> servir(Resource file, HttpServletRequest request,
+                                                         WebRequest webRequest) throws IOException {
+        Path fichero = file.getFile().toPath();
+        long longitud = file.contentLength();
+        long lastModified = file.lastModified();
+        String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(longitud) + "\"";
+
+        // If-None-Match / If-Modified-Since: 304 sin leer el fichero
+        if (webRequest.checkNotModified(etag, lastModified)) {
+            return null;
+        }
+
+        MediaType tipo = MediaTypeFactory.getMediaType(file).orElse(MediaType.APPLICATION_OCTET_STREAM);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        headers.setLastModified(lastModified);
+        headers.setCacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable());
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range == null || !rangoVigente(request, etag, lastModified)) {
+            headers.setContentType(tipo);
+            return enviar(request, headers, HttpStatus.OK, fichero, 0, longitud);
+        }
+
+        List<long[]> rangos;
+        try {
+            rangos = rangos(range, longitud);
+        } catch (IllegalArgumentException e) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + longitud);
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers).build();
+        }
+
+        if (rangos.size() == 1) {
+            long[] r = rangos.getFirst();
+            headers.setContentType(tipo);
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + r[0] + "-" + (r[1] - 1) + "/" + longitud);
+            return enviar(request, headers, HttpStatus.PARTIAL_CONTENT, fichero, r[0], r[1]);
+        }
+        return enviarRangos(request, headers, tipo, fichero, longitud, rangos);
+    }
+
+    // If-Range: solo se atiende el Range si el fichero es el mismo que tiene el cliente
+    private boolean rangoVigente(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Comparación fuerte: una etiqueta débil nunca vale para rangos
+            return ifRange.equals(etag);
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Rangos como [inicio, fin); descarta los que empiezan después del final del fichero
+    // y rechaza la petición si no queda ninguno o si piden más que el fichero entero
+    private List<long[]> rangos(String range, long longitud) {
+        List<long[]> rangos = new ArrayList<>();
+        long total = 0;
+        for (HttpRange r : HttpRange.parseRanges(range)) {
+            long inicio = r.getRangeStart(longitud);
+            if (inicio >= longitud) {
+                continue;
+            }
+            long fin = r.getRangeEnd(longitud) + 1;
+            total += fin - inicio;
+            rangos.add(new long[]{inicio, fin});
+        }
+        if (rangos.isEmpty() || total > longitud) {
+            throw new IllegalArgumentException("Rangos no válidos: " + range);
+        }
+        return rangos;
+    }
+
+    // Un único tramo: sendfile del contenedor si está disponible y si no FileChannel.transferTo
+    private ResponseEntity<StreamingResponseBody> enviar(HttpServletRequest request, HttpHeaders headers, HttpStatus status,
+                                                         Path fichero, long inicio, long fin) {
+        headers.setContentLength(fin - inicio);
+        // HEAD: solo cabeceras. Con sendfile Tomcat enviaría el fichero aunque la respuesta no lleve cuerpo
+        if (esHead(request) || EnvioFichero.sendfile(request, fichero, inicio, fin)) {
+            return ResponseEntity.status(status).headers(headers).build();
+        }
+        StreamingResponseBody body = out -> EnvioFichero.transferir(fichero, inicio, fin, out);
+        return ResponseEntity.status(status).headers(headers).body(body);
+    }
+
+    // Varios tramos: multipart/byteranges con cada tramo copiado con transferTo
+    private ResponseEntity<StreamingResponseBody> enviarRangos(HttpServletRequest request, HttpHeaders headers, MediaType tipo,
+                                                               Path fichero, long longitud, List<long[]> rangos) {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> cabeceras = new ArrayList<>();
+        long contentLength = 0;
+        for (long[] r : rangos) {
+            byte[] cabecera = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + tipo + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + r[0] + "-" + (r[1] - 1) + "/" + longitud + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            cabeceras.add(cabecera);
+            contentLength += cabecera.length + (r[1] - r[0]);
+        }
+        byte[] cierre = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += cierre.length;
+
+        headers.setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+        headers.setContentLength(contentLength);
+        if (esHead(request)) {
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).build();
+        }
+        StreamingResponseBody body = out -> {
+            WritableByteChannel destino = Channels.newChannel(out);
+            try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+                for (int i = 0; i < rangos.size(); i++) {
+                    out.write(cabeceras.get(i));
+                    EnvioFichero.transferir(canal, rangos.get(i)[0], rangos.get(i)[1], destino);
+                }
+            }
+            out.write(cierre);
+        };
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).body(body);
+    }
+
+    private static boolean esHead(HttpServletRequest request) {
+        return HttpMethod.HEAD.matches(request.getMethod());
+    }
+
+    @ExceptionHandler(StorageFileNotFoundException.class)
+    public ResponseEntity<Void> handleStorageFileNotFound(StorageFileNotFoundException e) {
+        return ResponseEntity.notFound().build();
     }
 
 }
@@ -3,7 +3,10 @@ package dev.joseluisgs.waladaw.controllers;
 import dev.joseluisgs.waladaw.config.AppConstants;
 import dev.joseluisgs.waladaw.models.Product;
 import dev.joseluisgs.waladaw.models.User;
-import dev.joseluisgs.waladaw.services.ProductService;
+import dev.joseluisgs.waladaw.services.CarritoActual;
+import dev.joseluisgs.waladaw.utils.ImportePerezoso;
+import dev.joseluisgs.waladaw.utils.ListaPerezosa;
+import dev.joseluisgs.waladaw.utils.TextoPerezoso;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,16 +15,18 @@ import org.springframework.security.web.csrf.CsrfToken;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ModelAttribute;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 
 // Importamos seguridad
 // Aqui exponemos atributos globales para las vistas
+// Los que necesitan la base de datos son perezosos: en una redirección o un @ResponseBody
+// nadie los lee y no se consulta nada
 @ControllerAdvice
 public class GlobalControllerAdvice {
 
     @Autowired
-    private ProductService productService;
+    private CarritoActual carritoActual;
 
     @ModelAttribute("currentUser")
     public User getCurrentUser(Authentication authentication) {
@@ -69,65 +74,57 @@ public class GlobalControllerAdvice {
         return null;
     }
 
+    // Los valores CSRF se resuelven al pintarlos: si la vista no los usa no se genera el token
+    // Las vistas de usuarios anónimos con formulario (login) lo cargan antes en su controlador,
+    // porque crear la sesión a mitad de pintar falla si la respuesta ya se ha enviado
     @ModelAttribute("csrfToken")
-    public String getCsrfToken(HttpServletRequest request) {
-        CsrfToken csrfToken = (CsrfToken) request.getAttribute(CsrfToken.class.getName());
-        return csrfToken != null ? csrfToken.getToken() : "";
+    public Object getCsrfToken(HttpServletRequest request) {
+        return csrfPerezoso(request, CsrfToken::getToken, "");
     }
 
     @ModelAttribute("csrfParamName")
-    public String getCsrfParamName(HttpServletRequest request) {
-        CsrfToken csrfToken = (CsrfToken) request.getAttribute(CsrfToken.class.getName());
-        return csrfToken != null ? csrfToken.getParameterName() : "_csrf";
+    public Object getCsrfParamName(HttpServletRequest request) {
+        return csrfPerezoso(request, CsrfToken::getParameterName, "_csrf");
     }
 
     @ModelAttribute("csrfHeaderName")
-    public String getCsrfHeaderName(HttpServletRequest request) {
-        CsrfToken csrfToken = (CsrfToken) request.getAttribute(CsrfToken.class.getName());
-        return csrfToken != null ? csrfToken.getHeaderName() : "X-CSRF-TOKEN";
+    public Object getCsrfHeaderName(HttpServletRequest request) {
+        return csrfPerezoso(request, CsrfToken::getHeaderName, "X-CSRF-TOKEN");
     }
 
+    private static TextoPerezoso csrfPerezoso(HttpServletRequest request, Function<CsrfToken, String> valor, String porDefecto) {
+        return new TextoPerezoso(() -> {
+            CsrfToken csrfToken = (CsrfToken) request.getAttribute(CsrfToken.class.getName());
+            return csrfToken != null ? valor.apply(csrfToken) : porDefecto;
+        });
+    }
+
+    // Productos del carrito: se cargan solo si la vista los recorre
     @ModelAttribute("carrito")
-    public List<Product> productosCarrito(HttpServletRequest request) {
-        HttpSession session = request.getSession(false);
-        List<Long> contenido = (List<Long>) session.getAttribute("carrito");
-        return (contenido == null) ? new ArrayList<>() : productService.variosPorId(contenido);
+    public List<Product> productosCarrito() {
+        return new ListaPerezosa<>(carritoActual::productos);
     }
 
     // ⭐ SHOPPING CART INFORMATION - FOR ALL PAGES ⭐
+    // El número de productos sale de la sesión, sin consultas
     @ModelAttribute("cartItemCount")
-    public int getCartItemCount(HttpServletRequest request) {
-        HttpSession session = request.getSession(false);
-        if (session != null) {
-            List<Long> carrito = (List<Long>) session.getAttribute("carrito");
-            return (carrito != null) ? carrito.size() : 0;
-        }
-        return 0;
+    public int getCartItemCount() {
+        return carritoActual.count();
     }
 
     @ModelAttribute("cartTotal")
-    public Double getCartTotal(HttpServletRequest request) {
-        HttpSession session = request.getSession(false);
-        if (session != null) {
-            List<Long> carrito = (List<Long>) session.getAttribute("carrito");
-            if (carrito != null && !carrito.isEmpty()) {
-                List<Product> productos = productService.variosPorId(carrito);
-                return productos.stream()
-                        .mapToDouble(Product::getPrecio)
-                        .sum();
-            }
-        }
-        return 0.0;
+    public Number getCartTotal() {
+        return new ImportePerezoso(carritoActual::total);
     }
 
     @ModelAttribute("hasCartItems")
-    public boolean hasCartItems(HttpServletRequest request) {
-        return getCartItemCount(request) > 0;
+    public boolean hasCartItems() {
+        return carritoActual.count() > 0;
     }
 
     @ModelAttribute("items_carrito")
-    public String itemsCarrito(HttpServletRequest request) {
-        int count = getCartItemCount(request);
+    public String itemsCarrito() {
+        int count = carritoActual.count();
         return count > 0 ? Integer.toString(count) : "";
     }
 
@@ -4,6 +4,7 @@ import dev.joseluisgs.waladaw.models.User;
 import dev.joseluisgs.waladaw.services.UserService;
 import dev.joseluisgs.waladaw.storage.StorageService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.web.csrf.CsrfToken;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -11,7 +12,6 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.servlet.mvc.method.annotation.MvcUriComponentsBuilder;
 
 @Controller
 public class LoginController {
@@ -31,8 +31,10 @@ public class LoginController {
     }
 
     @GetMapping("/auth/login")
-    public String login(Model model) {
-        // CSRF token is handled by GlobalControllerAdvice
+    public String login(Model model, CsrfToken csrfToken) {
+        // CSRF token is handled by GlobalControllerAdvice, pero aquí lo generamos ya:
+        // el visitante es anónimo y la sesión donde se guarda debe crearse antes de pintar la página
+        csrfToken.getToken();
         // Para el formulario de registro
         model.addAttribute("usuario", new User());
         return "login";
@@ -44,9 +46,7 @@ public class LoginController {
         // Subida de imágenes
         if (!file.isEmpty()) {
             String imagen = storageService.store(file);
-            usuario.setAvatar(MvcUriComponentsBuilder
-                    .fromMethodName(FilesController.class, "serveFile", imagen)
-                    .build().toUriString());
+            usuario.setAvatar(FilesController.url(imagen));
         }
 
         usuarioServicio.registrar(usuario);
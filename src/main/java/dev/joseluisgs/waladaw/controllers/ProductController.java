@@ -3,18 +3,17 @@ package dev.joseluisgs.waladaw.controllers;
 import dev.joseluisgs.waladaw.models.Product;
 import dev.joseluisgs.waladaw.models.ProductCategory;
 import dev.joseluisgs.waladaw.models.User;
+import dev.joseluisgs.waladaw.security.UsuarioActual;
+import dev.joseluisgs.waladaw.services.ImageService;
 import dev.joseluisgs.waladaw.services.ProductService;
-import dev.joseluisgs.waladaw.services.UserService;
 import dev.joseluisgs.waladaw.storage.StorageService;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.servlet.mvc.method.annotation.MvcUriComponentsBuilder;
 
 import java.util.List;
 
@@ -26,26 +25,24 @@ public class ProductController {
     final
     ProductService productoServicio;
 
-    // Servicio de usuario
-    final
-    UserService usuarioServicio;
     // Servicio de almacenamiento
     final
     StorageService storageService;
-    private User usuario;
+    // Servicio de imágenes
+    final
+    ImageService imageService;
 
     @Autowired
-    public ProductController(ProductService productoServicio, UserService usuarioServicio, StorageService storageService) {
+    public ProductController(ProductService productoServicio, StorageService storageService,
+                             ImageService imageService) {
         this.productoServicio = productoServicio;
-        this.usuarioServicio = usuarioServicio;
         this.storageService = storageService;
+        this.imageService = imageService;
     }
 
     // Inyectamos en el modelo automáticamente la lista de mis productos
     @ModelAttribute("misproductos")
-    public List<Product> misProductos() {
-        String email = SecurityContextHolder.getContext().getAuthentication().getName();
-        usuario = usuarioServicio.buscarPorEmail(email);
+    public List<Product> misProductos(@UsuarioActual User usuario) {
         return productoServicio.productosDeUnPropietario(usuario);
     }
 
@@ -57,7 +54,8 @@ public class ProductController {
 
     // Obtenemos la lista de mis productos, de hecho dejamos buscar, recibiendo el modelo
     @GetMapping("/misproductos")
-    public String list(Model model, @RequestParam(name = "q", required = false) String query) {
+    public String list(Model model, @RequestParam(name = "q", required = false) String query,
+                       @UsuarioActual User usuario) {
         if (query != null)
             // Asignamos al modelo los productos
             model.addAttribute("misproductos", productoServicio.buscarMisProductos(query, usuario));
@@ -68,7 +66,7 @@ public class ProductController {
     @GetMapping("/misproductos/eliminar/{id}")
     public String eliminar(@PathVariable Long id,
                            org.springframework.web.servlet.mvc.support.RedirectAttributes redirectAttributes,
-                           org.springframework.security.core.Authentication auth) {
+                           @UsuarioActual User usuario) {
         try {
             // Buscamos el producto
             Product producto = productoServicio.findById(id);
@@ -79,9 +77,8 @@ public class ProductController {
             }
 
             // Verificar si el usuario es el propietario
-            String email = org.springframework.security.core.context.SecurityContextHolder.getContext().getAuthentication().getName();
-            User currentUser = usuarioServicio.buscarPorEmail(email);
-            if (!producto.getPropietario().equals(currentUser)) {
+            // Por id: el principal de la sesión puede no tener los mismos datos que el propietario cargado
+            if (producto.getPropietario().getId() != usuario.getId()) {
                 redirectAttributes.addFlashAttribute("error",
                         "No tiene permisos para eliminar este producto.");
                 return "redirect:/app/misproductos";
@@ -95,7 +92,7 @@ public class ProductController {
                                 producto.getNombre()));
 
                 // Soft delete para productos vendidos
-                productoServicio.softDelete(id, auth.getName());
+                productoServicio.softDelete(id, usuario.getUsername());
             } else {
                 // Si no se ha vendido, permitir borrado físico
                 productoServicio.borrar(producto);
@@ -123,7 +120,8 @@ public class ProductController {
     public String nuevoProductoSubmit(@Valid @ModelAttribute Product producto,
                                       @RequestParam("file") MultipartFile file,
                                       @RequestParam(value = "categoria", required = false) String categoria,
-                                      BindingResult bindingResult) {
+                                      BindingResult bindingResult,
+                                      @UsuarioActual User usuario) {
 
         // Validar y asignar categoría
         if (categoria != null && !categoria.isEmpty()) {
@@ -142,8 +140,9 @@ public class ProductController {
             // Subimos las imagenes
             if (!file.isEmpty()) {
                 String imagen = storageService.store(file);
-                producto.setImagen(MvcUriComponentsBuilder
-                        .fromMethodName(FilesController.class, "serveFile", imagen).build().toUriString());
+                // Las miniaturas se generan en segundo plano
+                imageService.generarDerivados(imagen);
+                producto.setImagen(FilesController.url(imagen));
             } else {
                 // Asignar imagen por defecto si no se sube archivo
                 producto.setImagen(Product.DEFAULT_IMAGE_URL);
@@ -194,6 +193,11 @@ public class ProductController {
             // Obtenemos el usuario
             // Porque es el único campo que no le hemos podido pasar al formulario
             actualProducto.setPropietario(p.getPropietario());
+            // Ni el estado de reserva/venta ni la versión vienen en el formulario (las visitas no se guardan al editar)
+            actualProducto.setReservado(p.isReservado());
+            actualProducto.setReservaExpira(p.getReservaExpira());
+            actualProducto.setCompra(p.getCompra());
+            actualProducto.setVersion(p.getVersion());
 
             // Procesamos las imagenes
             actualProducto.setImagen(p.getImagen());
@@ -207,8 +211,8 @@ public class ProductController {
                 }
                 // Subimos la nueva
                 String imagen = storageService.store(file);
-                actualProducto.setImagen(MvcUriComponentsBuilder
-                        .fromMethodName(FilesController.class, "serveFile", imagen).build().toUriString());
+                imageService.generarDerivados(imagen);
+                actualProducto.setImagen(FilesController.url(imagen));
             }
             // Si no se sube archivo, mantener imagen actual (ya establecida en línea 130)
             // Actualizamos el producto
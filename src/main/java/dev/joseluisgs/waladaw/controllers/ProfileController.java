@@ -1,17 +1,16 @@
 package dev.joseluisgs.waladaw.controllers;
 
 import dev.joseluisgs.waladaw.models.User;
+import dev.joseluisgs.waladaw.security.UsuarioActual;
 import dev.joseluisgs.waladaw.services.UserService;
 import dev.joseluisgs.waladaw.storage.StorageService;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.servlet.mvc.method.annotation.MvcUriComponentsBuilder;
 
 @Controller
 @RequestMapping("/app/perfil")
@@ -24,9 +23,7 @@ public class ProfileController {
     private StorageService storageService;
 
     @GetMapping
-    public String showProfile(Model model) {
-        String email = SecurityContextHolder.getContext().getAuthentication().getName();
-        User user = userService.buscarPorEmail(email);
+    public String showProfile(Model model, @UsuarioActual User user) {
         model.addAttribute("usuario", user);
         return "app/perfil";
     }
@@ -35,36 +32,48 @@ public class ProfileController {
     public String updateProfile(@Valid @ModelAttribute("usuario") User updatedUser,
                                 @RequestParam(value = "file", required = false) MultipartFile file,
                                 BindingResult bindingResult,
-                                Model model) {
+                                Model model,
+                                @UsuarioActual User principal) {
 
         if (bindingResult.hasErrors()) {
             return "app/perfil";
         }
 
-        String email = SecurityContextHolder.getContext().getAuthentication().getName();
-        User existingUser = userService.buscarPorEmail(email);
+        // Se escribe sobre la fila actual y no sobre el principal de la sesión, que es la foto del login:
+        // guardarlo pisaría un cambio de rol o un borrado lógico hecho después por un administrador
+        User existingUser = userService.findByIdOptional(principal.getId()).orElse(null);
+        if (existingUser == null) {
+            return "redirect:/public";
+        }
 
         // Update only allowed fields
         existingUser.setNombre(updatedUser.getNombre());
         existingUser.setApellidos(updatedUser.getApellidos());
 
         // Handle avatar upload - ONLY process if a new file is uploaded
+        String oldAvatar = null;
         if (file != null && !file.isEmpty()) {
-            // Delete old avatar if exists and is NOT an external URL
-            if (existingUser.getAvatar() != null && !existingUser.getAvatar().isEmpty()
-                    && !isExternalUrl(existingUser.getAvatar())) {
-                storageService.delete(existingUser.getAvatar());
-            }
+            oldAvatar = existingUser.getAvatar();
             // Upload new avatar
             String avatar = storageService.store(file);
-            existingUser.setAvatar(MvcUriComponentsBuilder
-                    .fromMethodName(FilesController.class, "serveFile", avatar).build().toUriString());
+            existingUser.setAvatar(FilesController.url(avatar));
         }
         // If NO new file, keep current avatar (external URL or local file)
 
-        userService.editar(existingUser);
+        User saved = userService.editar(existingUser);
+
+        // Delete old avatar once the new one is saved, if it exists and is NOT an external URL
+        if (oldAvatar != null && !oldAvatar.isEmpty() && !isExternalUrl(oldAvatar)) {
+            storageService.delete(oldAvatar);
+        }
+
+        // Refrescamos el principal para que la cabecera muestre los datos nuevos
+        principal.setNombre(saved.getNombre());
+        principal.setApellidos(saved.getApellidos());
+        principal.setAvatar(saved.getAvatar());
+
         model.addAttribute("mensaje", "Perfil actualizado correctamente");
-        model.addAttribute("usuario", existingUser);
+        model.addAttribute("usuario", saved);
 
         return "app/perfil";
     }
@@ -1,28 +1,34 @@
 package dev.joseluisgs.waladaw.controllers;
 
+import dev.joseluisgs.waladaw.models.CarritoResumen;
 import dev.joseluisgs.waladaw.models.Product;
 import dev.joseluisgs.waladaw.models.Purchase;
 import dev.joseluisgs.waladaw.models.User;
-import dev.joseluisgs.waladaw.services.EmailService;
+import dev.joseluisgs.waladaw.security.UsuarioActual;
+import dev.joseluisgs.waladaw.services.CarritoActual;
+import dev.joseluisgs.waladaw.services.FacturaCacheService;
 import dev.joseluisgs.waladaw.services.ProductService;
 import dev.joseluisgs.waladaw.services.PurchaseService;
-import dev.joseluisgs.waladaw.services.UserService;
-import dev.joseluisgs.waladaw.utils.GeneradorPDF;
+import dev.joseluisgs.waladaw.utils.EnvioFichero;
+import dev.joseluisgs.waladaw.utils.ImportePerezoso;
+import dev.joseluisgs.waladaw.utils.ListaPerezosa;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
-import java.io.ByteArrayInputStream;
-import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Controller
 @RequestMapping("/app") // Ruta por defecto base donde vamos a escuchar
@@ -36,70 +42,44 @@ public class PurchaseController {
     final
     ProductService productoServicio;
 
-    // Para los usuarios
-    final
-    UserService usuarioServicio;
-
     // Para las sesiones
     final
     HttpSession session;
 
-    // Para Email
-    final
-    EmailService emailService;
 
+    // Caché en disco de las facturas en PDF
+    final
+    FacturaCacheService facturaCache;
 
-    // Para mapear el usuario identificado con lo que tenemos almacenado
-    private User usuario;
+    // Carrito de la petición (productos y total memorizados)
+    final
+    CarritoActual carritoActual;
 
     @Autowired
-    public PurchaseController(PurchaseService compraServicio, ProductService productoServicio, UserService usuarioServicio, HttpSession session, EmailService emailService) {
+    public PurchaseController(PurchaseService compraServicio, ProductService productoServicio, HttpSession session, FacturaCacheService facturaCache,
+                              CarritoActual carritoActual) {
         this.compraServicio = compraServicio;
         this.productoServicio = productoServicio;
-        this.usuarioServicio = usuarioServicio;
         this.session = session;
-        this.emailService = emailService;
+        this.facturaCache = facturaCache;
+        this.carritoActual = carritoActual;
     }
 
     // Los metodos etiquetados como ModelAtribute, pornen en el modelo el resultado de realizar esta operación
     // Luego lo podremos recuperar en la vista
-    @ModelAttribute("carrito")
-    public List<Product> productosCarrito() {
-        // Obtengo una lista de id alacenados en la sesión como carrito
-        List<Long> contenido = (List<Long>) session.getAttribute("carrito");
-        // Devulevo la lista de productos que tienen la id almacenada en la sesion
-        return (contenido == null) ? null : productoServicio.variosPorId(contenido);
-    }
+    // "carrito" e "items_carrito" los pone GlobalControllerAdvice (perezosos, una consulta por petición como mucho)
 
-    // Calcula el total del carrito
+    // Total del carrito según el resumen de la sesión
     @ModelAttribute("total_carrito")
-    public Double totalCarrito() {
-        List<Product> productosCarrito = productosCarrito(); // Aqui tenemos un ejemplo de como modelar
-        if (productosCarrito != null)
-            return productosCarrito.stream()
-                    .mapToDouble(p -> p.getPrecio())
-                    .sum();
-        // Podríamos hacerlo con un foreach y no con una expresión lamda. En el fondo estamos recorriendo el array
-        // y sumando los valores
-        return 0.0;
-    }
-
-    // Devuelve el total de items que tiene el carrito. Podemos hacerlo así o con la sesión
-    // Lo mostraré en navbar de las dos maneras
-    @ModelAttribute("items_carrito")
-    public String itemsCarrito() {
-        List<Product> productosCarrito = productosCarrito(); // Aqui tenemos un ejemplo de como modelar
-        if (productosCarrito != null)
-            return Integer.toString(productosCarrito.size());
-        return "";
+    public Number totalCarrito() {
+        return new ImportePerezoso(carritoActual::total);
     }
 
     // Muestro las compras asociadas al email que se ha registrado en la sesión
+    // La lista solo se consulta si la vista la usa
     @ModelAttribute("miscompras")
-    public List<Purchase> misCompras() {
-        String email = SecurityContextHolder.getContext().getAuthentication().getName();
-        usuario = usuarioServicio.buscarPorEmail(email);
-        return compraServicio.findByPropietarioWithProducts(usuario);
+    public List<Purchase> misCompras(@UsuarioActual User usuario) {
+        return new ListaPerezosa<>(() -> compraServicio.findByPropietarioWithProducts(usuario));
     }
 
     // Como ya tenemos el modelo carrito y total_carrito definido, solo debemos ir a la platilla
@@ -109,25 +89,28 @@ public class PurchaseController {
     }
 
     // AÑadimos un producto al carrito
+    // En la sesión guardamos un resumen (ids, precios, versiones y total) para no consultar en cada página
     @GetMapping("/carrito/add/{id}")
     public String addCarrito(Model model, @PathVariable Long id) {
-        List<Long> contenido = (List<Long>) session.getAttribute("carrito");
-        if (contenido == null)
-            contenido = new ArrayList<>();
+        CarritoResumen carrito = carritoActual.resumen();
+        if (carrito == null)
+            carrito = new CarritoResumen();
 
-        if (!contenido.contains(id)) {
+        if (!carrito.contains(id)) {
             // Realiza la reserva atómica, SOLO desde el servicio
             boolean reservado = productoServicio.marcarComoReservado(id);
             if (reservado) {
-                contenido.add(id);
+                // Precio y versión tal y como quedan tras la reserva
+                Product producto = productoServicio.findById(id);
+                if (producto != null)
+                    carrito.add(producto);
             } else {
                 session.setAttribute("compra_error", "El producto ya está reservado o vendido, no es posible añadirlo.");
                 return "redirect:/app/carrito";
             }
         }
 
-        session.setAttribute("carrito", contenido);
-        session.setAttribute("items_carrito", contenido.size());
+        session.setAttribute("carrito", carrito);
         return "redirect:/app/carrito";
     }
 
@@ -135,22 +118,23 @@ public class PurchaseController {
     @GetMapping("/carrito/eliminar/{id}")
     public String borrarDeCarrito(Model model, @PathVariable Long id) {
         // Recuperamos el carrito
-        List<Long> contenido = (List<Long>) session.getAttribute("carrito");
+        CarritoResumen carrito = carritoActual.resumen();
         // Si es nulo, lo mandamos a public
-        if (contenido == null)
+        if (carrito == null)
             return "redirect:/public";
+        // Solo se libera la reserva de un producto que está en nuestro carrito
+        if (!carrito.contains(id))
+            return "redirect:/app/carrito";
         // Borramos el contenido
-        contenido.remove(id);
+        carrito.remove(id);
         // Desmarcamos como reservado
-        productoServicio.marcarComoReservado(id, false);
+        productoServicio.liberarReserva(id);
         // Si está vacío, elimamos carrito de la sesión
-        if (contenido.isEmpty()) {
+        if (carrito.isEmpty()) {
             session.removeAttribute("carrito");
-            session.removeAttribute("items_carrito");
         } else {
-            // Si no lo añadimos
-            session.setAttribute("carrito", contenido);
-            session.setAttribute("items_carrito", contenido.size());
+            // Si no lo añadimos (para que se replique la sesión si cambia)
+            session.setAttribute("carrito", carrito);
         }
         return "redirect:/app/carrito";
 
@@ -160,8 +144,8 @@ public class PurchaseController {
     @GetMapping("/carrito/comprar")
     public String confirmarCompra(Model model) {
         // Recuperamos el carrito
-        List<Long> contenido = (List<Long>) session.getAttribute("carrito");
-        if (contenido == null || contenido.isEmpty())
+        CarritoResumen carrito = carritoActual.resumen();
+        if (carrito == null || carrito.isEmpty())
             return "redirect:/public";
 
         // Los productos ya están en el modelo via @ModelAttribute
@@ -170,47 +154,39 @@ public class PurchaseController {
 
     // Finaliza una compra
     @GetMapping("/carrito/finalizar")
-    public String checkout() {
+    public String checkout(@UsuarioActual User usuario) {
         // Recuperamos el carrito
-        List<Long> contenido = (List<Long>) session.getAttribute("carrito");
-        if (contenido == null) // Es es nulo a public
+        CarritoResumen carrito = carritoActual.resumen();
+        if (carrito == null) // Es es nulo a public
             return "redirect:/public";
 
-        // Obtenemos la lista de productos
-        List<Product> productos = productosCarrito();
-
-        // Validación de reservas: solo se puede comprar si siguen reservados y la reserva no ha caducado
-        LocalDateTime now = LocalDateTime.now();
-        for (Product producto : productos) {
-            if (!producto.isReservado() || producto.getReservaExpira() == null || producto.getReservaExpira().isBefore(now)) {
-                // Puedes notificar al usuario el problema, aquí solo redirigimos por ejemplo
-                session.setAttribute("compra_error", "El producto '" + producto.getNombre() + "' ya no está disponible. Su reserva ha caducado o ha sido vendido.");
-                return "redirect:/app/carrito"; // O a una página de error específica
+        // Único momento en que se revalida el resumen contra la base de datos: si algún producto
+        // ha cambiado se rehace, y si el total ya no es el que vio el usuario vuelve al carrito
+        List<Long> contenido = carrito.ids();
+        List<Product> actuales = productoServicio.variosPorId(contenido);
+        if (!carrito.vigente(actuales)) {
+            CarritoResumen actualizado = CarritoResumen.de(actuales);
+            session.setAttribute("carrito", actualizado);
+            if (actualizado.count() != carrito.count() || Math.abs(actualizado.total() - carrito.total()) > 0.005) {
+                session.setAttribute("compra_error", "Tu carrito ha cambiado desde que añadiste los productos. Revisa el total antes de comprar.");
+                return "redirect:/app/carrito";
             }
+            contenido = actualizado.ids();
+        }
+
+        // Validamos las reservas, creamos la compra y asignamos los productos en una sola transacción
+        Purchase c;
+        try {
+            c = compraServicio.checkout(usuario, contenido);
+        } catch (IllegalStateException e) {
+            session.setAttribute("compra_error", e.getMessage());
+            return "redirect:/app/carrito";
         }
 
-        // Los insertamos en la compra
-        Purchase c = compraServicio.insertar(new Purchase(), usuario);
-        // Sitaxis de java nueva por cada producto p, ejecutamos compra servicio y asociamos p a la compra c
-        productos.forEach(p -> compraServicio.addProductoCompra(p, c));
         // Elimanos de la sesión el carrito
         session.removeAttribute("carrito");
-        session.removeAttribute("items_carrito");
-
-        // Elimina la reserva de los productos comprados
-        productos.forEach(p -> {
-            productoServicio.marcarComoReservado(p.getId(), false);
-        });
-
-        // Enviar email de confirmación de manera asíncrona para no bloquear
-        new Thread(() -> {
-            try {
-                emailService.enviarEmailConfirmacionCompra(c);
-            } catch (Exception e) {
-                // Log error but don't fail the purchase
-                System.err.println("Error enviando email: " + e.getMessage());
-            }
-        }).start();
+
+        // El email de confirmación ya está en la cola de envío (outbox), no bloquea la compra
 
         // Abrimos la factura
         return "redirect:/app/miscompras/factura/" + c.getId();
@@ -240,26 +216,36 @@ public class PurchaseController {
         return "/app/compra/factura";
     }
 
-    // Saco una factura en PDF usando itex - Simple and working version
+    // Saco una factura en PDF usando itex
+    // Las compras no cambian: la factura se genera una vez, se guarda en disco y se sirve desde ahí
     @RequestMapping(value = "/miscompras/factura/{id}/pdf", method = RequestMethod.GET, produces = MediaType.APPLICATION_PDF_VALUE)
-    public ResponseEntity<InputStreamResource> facturaPDF(@PathVariable Long id) {
-        // Recupero la compra mediante su ID con productos cargados
-        Purchase compra = compraServicio.findByIdWithProducts(id);
-        // Los productos ya están cargados
-        List<Product> productos = compra.getProductos();
-        // Total calculado automáticamente
-        Double total = compra.getTotal();
+    public ResponseEntity<Resource> facturaPDF(@PathVariable Long id, HttpServletRequest request, WebRequest webRequest) {
+        // Si el navegador ya la tiene, 304 sin tocar la base de datos ni el disco
+        String etag = facturaCache.etag(id);
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
 
-        ByteArrayInputStream bis = GeneradorPDF.factura2PDF(compra, productos, total);
+        // Recupero la compra con productos cargados solo si hay que generar el PDF
+        Path fichero = facturaCache.obtener(id, () -> compraServicio.findByIdWithProducts(id));
+        long longitud = fichero.toFile().length();
 
         HttpHeaders headers = new HttpHeaders();
-        headers.add("Content-Disposition", "inline; filename=factura_" + compra.getId() + ".pdf");
+        headers.add("Content-Disposition", "inline; filename=factura_" + id + ".pdf");
+        headers.setETag(etag);
+        headers.setCacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable());
 
-        return ResponseEntity
+        ResponseEntity.BodyBuilder respuesta = ResponseEntity
                 .ok()
                 .headers(headers)
                 .contentType(MediaType.APPLICATION_PDF)
-                .body(new InputStreamResource(bis));
+                .contentLength(longitud);
+
+        // Con sendfile el contenedor envía el fichero sin pasar por la aplicación
+        if (EnvioFichero.sendfile(request, fichero, 0, longitud)) {
+            return respuesta.build();
+        }
+        return respuesta.body(new FileSystemResource(fichero));
     }
 
 
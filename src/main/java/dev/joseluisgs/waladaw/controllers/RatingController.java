@@ -3,12 +3,11 @@ package dev.joseluisgs.waladaw.controllers;
 import dev.joseluisgs.waladaw.models.Product;
 import dev.joseluisgs.waladaw.models.Rating;
 import dev.joseluisgs.waladaw.models.User;
+import dev.joseluisgs.waladaw.security.UsuarioActual;
 import dev.joseluisgs.waladaw.services.ProductService;
 import dev.joseluisgs.waladaw.services.RatingService;
-import dev.joseluisgs.waladaw.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
@@ -23,23 +22,15 @@ public class RatingController {
     @Autowired
     private RatingService ratingService;
 
-    @Autowired
-    private UserService userService;
-
     @Autowired
     private ProductService productService;
 
-    private User getAuthenticatedUser() {
-        String email = SecurityContextHolder.getContext().getAuthentication().getName();
-        return userService.buscarPorEmail(email);
-    }
-
     @PostMapping("/ratings/add")
     @ResponseBody
     public ResponseEntity<Map<String, Object>> addRating(@RequestParam Long productoId,
                                                          @RequestParam int puntuacion,
-                                                         @RequestParam(required = false) String comentario) {
-        User usuario = getAuthenticatedUser();
+                                                         @RequestParam(required = false) String comentario,
+                                                         @UsuarioActual User usuario) {
         Map<String, Object> response = new HashMap<>();
 
         try {
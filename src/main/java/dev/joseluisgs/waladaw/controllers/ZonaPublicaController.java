@@ -2,16 +2,18 @@ package dev.joseluisgs.waladaw.controllers;
 
 import dev.joseluisgs.waladaw.models.Product;
 import dev.joseluisgs.waladaw.models.ProductCategory;
+import dev.joseluisgs.waladaw.models.User;
+import dev.joseluisgs.waladaw.security.UsuarioActual;
 import dev.joseluisgs.waladaw.services.FavoriteService;
 import dev.joseluisgs.waladaw.services.ProductService;
 import dev.joseluisgs.waladaw.services.RatingService;
-import dev.joseluisgs.waladaw.services.UserService;
+import dev.joseluisgs.waladaw.services.TrendingService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
@@ -34,19 +36,19 @@ public class ZonaPublicaController {
     FavoriteService favoriteService;
 
     @Autowired
-    UserService userService;
+    TrendingService trendingService;
+
+    // Número de productos de la sección de tendencias
+    private static final int TRENDING_SIZE = 4;
+
+    // Tamaño máximo de página del catálogo (también en modo cursor)
+    private static final int MAX_PAGE_SIZE = 100;
 
     @Autowired
     public ZonaPublicaController(ProductService productoServicio) {
         this.productoServicio = productoServicio;
     }
 
-    // De esta manera siempre tenemos los productos no vendidos
-    @ModelAttribute("productos")
-    public List<Product> productosNoVendidos() {
-        return productoServicio.productosSinVender();
-    }
-
     // Inyectamos las categorías en el modelo para los filtros
     @ModelAttribute("categorias")
     public ProductCategory[] getCategorias() {
@@ -54,6 +56,19 @@ public class ZonaPublicaController {
     }
 
 
+    // Productos en tendencia (sin consultar la base de datos)
+    @ModelAttribute("trending")
+    public List<TrendingService.TrendingProduct> getTrending() {
+        return trendingService.top(TRENDING_SIZE);
+    }
+
+    // Tendencias en JSON
+    @GetMapping("/trending")
+    @ResponseBody
+    public List<TrendingService.TrendingProduct> trending(@RequestParam(name = "size", defaultValue = "8") int size) {
+        return trendingService.top(size);
+    }
+
     // Escuchamos en las dos rutas por defecto
     // Tenemos una query, del buscador y no es obligatoria
     @GetMapping({"", "/", "/index"})
@@ -63,7 +78,49 @@ public class ZonaPublicaController {
                         @RequestParam(name = "minPrecio", required = false) Float minPrecio,
                         @RequestParam(name = "maxPrecio", required = false) Float maxPrecio,
                         @RequestParam(name = "page", defaultValue = "0") int page,
-                        @RequestParam(name = "size", defaultValue = "12") int size) {
+                        @RequestParam(name = "size", defaultValue = "12") int size,
+                        @RequestParam(name = "after", required = false) Long after) {
+
+        // Un size negativo, cero o enorme no debe llegar a la consulta
+        size = Math.clamp(size, 1, MAX_PAGE_SIZE);
+        page = Math.max(page, 0);
+
+        // Modo cursor (scroll infinito): seguimos desde el último id servido, sin OFFSET ni COUNT
+        if (after != null) {
+            Slice<Product> productosSlice;
+            if (query != null && !query.trim().isEmpty()) {
+                productosSlice = productoServicio.findByNombreContainingIgnoreCaseAfter(query, after, size);
+            } else if (categoria != null && !categoria.isEmpty()) {
+                try {
+                    ProductCategory cat = ProductCategory.valueOf(categoria);
+                    productosSlice = productoServicio.findByCategoriaAfter(cat, after, size);
+                } catch (IllegalArgumentException e) {
+                    productosSlice = productoServicio.findAllAfter(after, size);
+                }
+            } else if (minPrecio != null || maxPrecio != null) {
+                Float min = minPrecio != null ? minPrecio : 0f;
+                Float max = maxPrecio != null ? maxPrecio : Float.MAX_VALUE;
+                productosSlice = productoServicio.findByPrecioBetweenAfter(min, max, after, size);
+            } else {
+                productosSlice = productoServicio.findAllAfter(after, size);
+            }
+
+            List<Product> contenido = productosSlice.getContent();
+            model.addAttribute("productos", contenido);
+            model.addAttribute("keyset", true);
+            model.addAttribute("after", after);
+            model.addAttribute("nextAfter", contenido.isEmpty() ? null : contenido.getLast().getId());
+            model.addAttribute("size", size);
+            model.addAttribute("hasNext", productosSlice.hasNext());
+
+            // Mantener filtros
+            model.addAttribute("categoriaActual", categoria);
+            model.addAttribute("q", query);
+            model.addAttribute("minPrecio", minPrecio);
+            model.addAttribute("maxPrecio", maxPrecio);
+
+            return "index";
+        }
 
         // Crear Pageable
         Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "id"));
@@ -93,6 +150,9 @@ public class ZonaPublicaController {
         model.addAttribute("currentPage", page);
         model.addAttribute("totalPages", productosPage.getTotalPages());
         model.addAttribute("totalElements", productosPage.getTotalElements());
+        // En búsquedas con muchas coincidencias el total solo se cuenta hasta unas páginas más allá
+        model.addAttribute("totalExacto", !(productosPage instanceof ProductService.PaginaBusqueda<?> busqueda)
+                || busqueda.isTotalExacto());
         model.addAttribute("size", size);
         model.addAttribute("hasNext", productosPage.hasNext());
         model.addAttribute("hasPrevious", productosPage.hasPrevious());
@@ -108,12 +168,12 @@ public class ZonaPublicaController {
 
     // Devolvemos el producto con id establecida
     @GetMapping("/producto/{id}")
-    public String showProduct(Model model, @PathVariable Long id) {
+    public String showProduct(Model model, @PathVariable Long id, @UsuarioActual User usuario) {
         //Buscamos pro id
         Product result = productoServicio.findById(id);
         if (result != null) {
             // Incrementar vistas automáticamente
-            productoServicio.incrementarVistas(id);
+            productoServicio.incrementarVistas(result);
 
             // Si lo encotramos lo añadimos al modelo y se lo pasamos
             model.addAttribute("producto", result);
@@ -124,26 +184,18 @@ public class ZonaPublicaController {
             model.addAttribute("averageRating", avgRating != null ? avgRating : 0.0);
             model.addAttribute("ratingCount", ratingCount);
 
-            // Añadir información de favoritos si está autenticado
-            try {
-                String email = SecurityContextHolder.getContext().getAuthentication().getName();
-                if (email != null && !email.equals("anonymousUser")) {
-                    var usuario = userService.buscarPorEmail(email);
-                    if (usuario != null) {
-                        boolean isFavorite = favoriteService.isFavorite(usuario, id);
-                        model.addAttribute("isFavorite", isFavorite);
-
-                        // Check if user has already rated this product
-                        boolean yaValorado = ratingService.yaValorado(usuario.getId(), id);
-                        model.addAttribute("yaValorado", yaValorado);
-                        if (yaValorado) {
-                            var existingRating = ratingService.getValoracionUsuario(usuario.getId(), id);
-                            existingRating.ifPresent(rating -> model.addAttribute("miValoracion", rating));
-                        }
-                    }
+            // Añadir información de favoritos si está autenticado (usuario es null si es anónimo)
+            if (usuario != null) {
+                boolean isFavorite = favoriteService.isFavorite(usuario, id);
+                model.addAttribute("isFavorite", isFavorite);
+
+                // Check if user has already rated this product
+                boolean yaValorado = ratingService.yaValorado(usuario.getId(), id);
+                model.addAttribute("yaValorado", yaValorado);
+                if (yaValorado) {
+                    var existingRating = ratingService.getValoracionUsuario(usuario.getId(), id);
+                    existingRating.ifPresent(rating -> model.addAttribute("miValoracion", rating));
                 }
-            } catch (Exception e) {
-                // Usuario no autenticado
             }
 
             return "producto";
@@ -0,0 +1,13 @@
+package dev.joseluisgs.waladaw.events;
+
+/**
+ * Evento que se publica al editar un producto
+ * Lleva los datos que se pintan en las tendencias para refrescar su copia
+ *
+ * @param id     id del producto
+ * @param nombre nombre del producto
+ * @param precio precio del producto
+ * @param imagen URL de la imagen (o la imagen por defecto)
+ */
+public record ProductEditedEvent(long id, String nombre, float precio, String imagen) {
+}
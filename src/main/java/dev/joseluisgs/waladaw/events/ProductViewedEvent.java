@@ -0,0 +1,13 @@
+package dev.joseluisgs.waladaw.events;
+
+/**
+ * Evento que se publica cada vez que se visita la ficha de un producto
+ * Lleva los datos mínimos para pintarlo sin volver a consultar la base de datos
+ *
+ * @param id     id del producto
+ * @param nombre nombre del producto
+ * @param precio precio del producto
+ * @param imagen URL de la imagen (o la imagen por defecto)
+ */
+public record ProductViewedEvent(long id, String nombre, float precio, String imagen) {
+}
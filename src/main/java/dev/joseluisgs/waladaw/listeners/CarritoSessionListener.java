@@ -1,13 +1,12 @@
 package dev.joseluisgs.waladaw.listeners;
 
+import dev.joseluisgs.waladaw.models.CarritoResumen;
 import dev.joseluisgs.waladaw.services.ProductService;
 import jakarta.servlet.http.HttpSessionEvent;
 import jakarta.servlet.http.HttpSessionListener;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.List;
-
 @Component
 public class CarritoSessionListener implements HttpSessionListener {
 
@@ -26,10 +25,9 @@ public class CarritoSessionListener implements HttpSessionListener {
     @Override
     public void sessionDestroyed(HttpSessionEvent se) {
         Object carritoObj = se.getSession().getAttribute("carrito");
-        if (carritoObj instanceof List<?>) {
-            List<Long> productos = (List<Long>) carritoObj;
-            for (Long id : productos) {
-                productService.marcarComoReservado(id, false);
+        if (carritoObj instanceof CarritoResumen carrito) {
+            for (Long id : carrito.ids()) {
+                productService.liberarReserva(id);
             }
         }
     }
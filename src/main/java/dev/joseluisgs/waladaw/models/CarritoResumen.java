@@ -0,0 +1,81 @@
+package dev.joseluisgs.waladaw.models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resumen del carrito que se guarda en la sesión
+ * Ids de los productos con el precio y la versión que tenían al añadirlos, y el total acumulado.
+ * Con esto se pinta el contador y el total sin consultar la base de datos; los precios solo
+ * se comprueban de nuevo al pagar.
+ */
+public class CarritoResumen implements Serializable {
+
+    private final Map<Long, Linea> lineas = new LinkedHashMap<>();
+    private double total = 0.0;
+
+    public record Linea(float precio, long version) implements Serializable {
+    }
+
+    public static CarritoResumen de(List<Product> productos) {
+        CarritoResumen resumen = new CarritoResumen();
+        productos.forEach(resumen::add);
+        return resumen;
+    }
+
+    public void add(Product p) {
+        Linea anterior = lineas.put(p.getId(), new Linea(p.getPrecio(), p.getVersion()));
+        if (anterior != null) {
+            total -= anterior.precio();
+        }
+        total += p.getPrecio();
+    }
+
+    public void remove(Long id) {
+        Linea linea = lineas.remove(id);
+        if (linea != null) {
+            total -= linea.precio();
+        }
+        if (lineas.isEmpty()) {
+            total = 0.0;
+        }
+    }
+
+    public boolean contains(Long id) {
+        return lineas.containsKey(id);
+    }
+
+    public List<Long> ids() {
+        return new ArrayList<>(lineas.keySet());
+    }
+
+    public int count() {
+        return lineas.size();
+    }
+
+    public double total() {
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return lineas.isEmpty();
+    }
+
+    /**
+     * Comprueba el resumen contra los productos actuales
+     *
+     * @param actuales productos recién leídos de la base de datos
+     * @return true si siguen todos y con la misma versión
+     */
+    public boolean vigente(List<Product> actuales) {
+        if (actuales.size() != lineas.size()) return false;
+        for (Product p : actuales) {
+            Linea linea = lineas.get(p.getId());
+            if (linea == null || linea.version() != p.getVersion()) return false;
+        }
+        return true;
+    }
+}
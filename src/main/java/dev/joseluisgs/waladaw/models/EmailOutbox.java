@@ -0,0 +1,150 @@
+package dev.joseluisgs.waladaw.models;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Email pendiente de envío (patrón transactional outbox)
+ * Se escribe en la misma transacción que la compra, así que no se pierde
+ * aunque la aplicación se reinicie antes de enviarlo.
+ */
+@Entity
+@Table(indexes = {
+        @Index(name = "idx_outbox_pendientes", columnList = "estado, siguiente_intento")
+})
+public class EmailOutbox {
+
+    public enum Estado {
+        PENDIENTE, ENVIANDO, ENVIADO, FALLIDO
+    }
+
+    // Longitud de la columna ultimo_error
+    public static final int MAX_ERROR = 1000;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private long id;
+
+    @Column(name = "compra_id", nullable = false)
+    private Long compraId;
+
+    // Idioma de la petición que hizo la compra
+    @Column(name = "locale", nullable = false)
+    private String locale;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "estado", nullable = false)
+    private Estado estado = Estado.PENDIENTE;
+
+    @Column(name = "intentos", nullable = false)
+    private int intentos = 0;
+
+    @Column(name = "siguiente_intento", nullable = false)
+    private LocalDateTime siguienteIntento;
+
+    @Column(name = "ultimo_error", length = MAX_ERROR)
+    private String ultimoError;
+
+    // Cuándo lo reclamó un sondeo para enviarlo (solo mientras está ENVIANDO)
+    @Column(name = "reclamado")
+    private LocalDateTime reclamado;
+
+    @Column(name = "creado", nullable = false)
+    private LocalDateTime creado;
+
+    public EmailOutbox() {
+    }
+
+    public EmailOutbox(Long compraId, String locale) {
+        this.compraId = compraId;
+        this.locale = locale;
+        this.creado = LocalDateTime.now();
+        this.siguienteIntento = this.creado;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public Long getCompraId() {
+        return compraId;
+    }
+
+    public void setCompraId(Long compraId) {
+        this.compraId = compraId;
+    }
+
+    public String getLocale() {
+        return locale;
+    }
+
+    public void setLocale(String locale) {
+        this.locale = locale;
+    }
+
+    public Estado getEstado() {
+        return estado;
+    }
+
+    public void setEstado(Estado estado) {
+        this.estado = estado;
+    }
+
+    public int getIntentos() {
+        return intentos;
+    }
+
+    public void setIntentos(int intentos) {
+        this.intentos = intentos;
+    }
+
+    public LocalDateTime getSiguienteIntento() {
+        return siguienteIntento;
+    }
+
+    public void setSiguienteIntento(LocalDateTime siguienteIntento) {
+        this.siguienteIntento = siguienteIntento;
+    }
+
+    public String getUltimoError() {
+        return ultimoError;
+    }
+
+    // Los mensajes de error de SMTP pueden ser muy largos: se recortan al tamaño de la columna
+    public void setUltimoError(String ultimoError) {
+        this.ultimoError = ultimoError != null && ultimoError.length() > MAX_ERROR
+                ? ultimoError.substring(0, MAX_ERROR) : ultimoError;
+    }
+
+    public LocalDateTime getReclamado() {
+        return reclamado;
+    }
+
+    public void setReclamado(LocalDateTime reclamado) {
+        this.reclamado = reclamado;
+    }
+
+    public LocalDateTime getCreado() {
+        return creado;
+    }
+
+    public void setCreado(LocalDateTime creado) {
+        this.creado = creado;
+    }
+
+    @Override
+    public String toString() {
+        return "EmailOutbox{" +
+                "id=" + id +
+                ", compraId=" + compraId +
+                ", estado=" + estado +
+                ", intentos=" + intentos +
+                ", siguienteIntento=" + siguienteIntento +
+                '}';
+    }
+}
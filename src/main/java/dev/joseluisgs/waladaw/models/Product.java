@@ -1,5 +1,6 @@
 package dev.joseluisgs.waladaw.models;
 
+import dev.joseluisgs.waladaw.utils.ImagenVariante;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotEmpty;
@@ -8,6 +9,10 @@ import java.time.LocalDateTime;
 import java.util.Objects;
 
 @Entity
+@Table(indexes = {
+        // Para el barrido de reservas caducadas
+        @Index(name = "idx_product_reserva", columnList = "reservado, reserva_expira")
+})
 public class Product {
     public static final String DEFAULT_IMAGE_URL = "https://cdn-icons-png.flaticon.com/512/5617/5617585.png";
 
@@ -47,9 +52,15 @@ public class Product {
     private LocalDateTime deletedAt;
     @Column(name = "deleted_by")
     private String deletedBy;
-    @Column(name = "views", nullable = false)
+    // Solo la escribe el volcado de ProductViewCounter: al editar no se pisan las visitas ya volcadas
+    @Column(name = "views", nullable = false, updatable = false)
     private Long views = 0L;
 
+    // Bloqueo optimista: las actualizaciones masivas (reservas) también lo incrementan
+    @Version
+    @Column(name = "version", nullable = false, columnDefinition = "bigint default 0")
+    private long version;
+
     public Product() {
     }
 
@@ -201,6 +212,21 @@ public class Product {
         return DEFAULT_IMAGE_URL;
     }
 
+    /**
+     * srcset con las versiones redimensionadas de la imagen (miniatura, tarjeta, detalle)
+     * Vacío si la imagen es externa o no hay imagen
+     */
+    public String getImagenSrcset() {
+        if (this.imagen == null || this.imagen.isEmpty()) {
+            return "";
+        }
+        int i = this.imagen.lastIndexOf("/files/");
+        if (i >= 0) {
+            return ImagenVariante.srcset(this.imagen.substring(i + "/files/".length()));
+        }
+        return this.imagen.startsWith("http") ? "" : ImagenVariante.srcset(this.imagen);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -248,4 +274,12 @@ public class Product {
     public void setReservaExpira(LocalDateTime reservaExpira) {
         this.reservaExpira = reservaExpira;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
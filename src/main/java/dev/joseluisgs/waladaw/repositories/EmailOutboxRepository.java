@@ -0,0 +1,38 @@
+package dev.joseluisgs.waladaw.repositories;
+
+import dev.joseluisgs.waladaw.models.EmailOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface EmailOutboxRepository extends JpaRepository<EmailOutbox, Long> {
+
+    @Query("SELECT e FROM EmailOutbox e WHERE e.estado = :estado AND e.siguienteIntento <= :ahora ORDER BY e.id")
+    List<EmailOutbox> findListos(@Param("estado") EmailOutbox.Estado estado, @Param("ahora") LocalDateTime ahora, Pageable pageable);
+
+    long countByEstado(EmailOutbox.Estado estado);
+
+    // Reclama un email pendiente para enviarlo: solo un sondeo puede cambiar su estado
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox e SET e.estado = dev.joseluisgs.waladaw.models.EmailOutbox.Estado.ENVIANDO, e.reclamado = :ahora WHERE e.id = :id AND e.estado = dev.joseluisgs.waladaw.models.EmailOutbox.Estado.PENDIENTE")
+    int reclamar(@Param("id") Long id, @Param("ahora") LocalDateTime ahora);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox e SET e.estado = :nuevo, e.reclamado = NULL WHERE e.id = :id AND e.estado = :actual")
+    int cambiarEstado(@Param("id") Long id, @Param("actual") EmailOutbox.Estado actual, @Param("nuevo") EmailOutbox.Estado nuevo);
+
+    // Los reclamados hace más de lo que puede durar un envío vuelven a estar pendientes
+    // (el nodo que los reclamó se cayó o no pudo guardar el resultado); los recientes no se tocan
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox e SET e.estado = dev.joseluisgs.waladaw.models.EmailOutbox.Estado.PENDIENTE, e.reclamado = NULL WHERE e.estado = dev.joseluisgs.waladaw.models.EmailOutbox.Estado.ENVIANDO AND (e.reclamado IS NULL OR e.reclamado < :limite)")
+    int liberarReclamadosAntesDe(@Param("limite") LocalDateTime limite);
+}
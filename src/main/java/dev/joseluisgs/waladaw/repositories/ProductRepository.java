@@ -6,10 +6,14 @@ import dev.joseluisgs.waladaw.models.Purchase;
 import dev.joseluisgs.waladaw.models.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -35,6 +39,10 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     @Query("SELECT p FROM Product p WHERE p.id = :id AND p.deleted = false")
     Optional<Product> findActiveById(@Param("id") Long id);
 
+    // Solo la categoría guardada, para saber qué lista de la caché invalidar al editar
+    @Query("SELECT p.categoria FROM Product p WHERE p.id = :id")
+    Optional<ProductCategory> findCategoriaById(@Param("id") Long id);
+
     @Query("SELECT p FROM Product p WHERE p.propietario = :propietario AND p.deleted = false")
     List<Product> findByPropietarioActive(@Param("propietario") User propietario);
 
@@ -44,6 +52,9 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     @Query("SELECT p FROM Product p WHERE p.nombre LIKE %:search% AND p.deleted = false")
     List<Product> findByNombreContainingActive(@Param("search") String search);
 
+    // Catálogo completo (activos y sin vender), para construir el índice de búsqueda
+    List<Product> findByDeletedFalseAndCompraIsNull();
+
     // Pagination methods
     @Query("SELECT p FROM Product p WHERE p.deleted = false AND p.compra IS NULL ORDER BY p.id DESC")
     Page<Product> findByDeletedFalseAndCompraIsNull(Pageable pageable);
@@ -57,6 +68,16 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     @Query("SELECT p FROM Product p WHERE p.precio BETWEEN :min AND :max AND p.deleted = false AND p.compra IS NULL ORDER BY p.id DESC")
     Page<Product> findByPrecioBetweenAndDeletedFalseAndCompraIsNull(@Param("min") Float min, @Param("max") Float max, Pageable pageable);
 
+    // Keyset pagination methods (cursor sobre p.id DESC, sin COUNT)
+    @Query("SELECT p FROM Product p WHERE p.id < :after AND p.deleted = false AND p.compra IS NULL ORDER BY p.id DESC")
+    Slice<Product> findByDeletedFalseAndCompraIsNullAfter(@Param("after") Long after, Pageable pageable);
+
+    @Query("SELECT p FROM Product p WHERE p.id < :after AND p.categoria = :categoria AND p.deleted = false AND p.compra IS NULL ORDER BY p.id DESC")
+    Slice<Product> findByCategoriaAndDeletedFalseAndCompraIsNullAfter(@Param("categoria") ProductCategory categoria, @Param("after") Long after, Pageable pageable);
+
+    @Query("SELECT p FROM Product p WHERE p.id < :after AND p.precio BETWEEN :min AND :max AND p.deleted = false AND p.compra IS NULL ORDER BY p.id DESC")
+    Slice<Product> findByPrecioBetweenAndDeletedFalseAndCompraIsNullAfter(@Param("min") Float min, @Param("max") Float max, @Param("after") Long after, Pageable pageable);
+
     // Admin pagination methods (includes all products, not just unsold)
     @Query("SELECT p FROM Product p WHERE p.deleted = false ORDER BY p.id DESC")
     Page<Product> findAllActivePaginated(Pageable pageable);
@@ -83,4 +104,33 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     Page<Product> findByAllFiltersActivePaginated(@Param("nombre") String nombre, @Param("categoria") ProductCategory categoria, @Param("propietarioId") Long propietarioId, Pageable pageable);
 
     List<Product> findByReservadoTrue();
+
+    // Reserva atómica (compare-and-set): solo una petición concurrente puede cambiar la fila
+    @Modifying
+    @Transactional
+    @Query("UPDATE Product p SET p.reservado = true, p.reservaExpira = :expira, p.version = p.version + 1 WHERE p.id = :id AND p.reservado = false AND p.compra IS NULL AND p.deleted = false")
+    int reservar(@Param("id") Long id, @Param("expira") LocalDateTime expira);
+
+    // Libera la reserva de un producto que sigue reservado y sin vender (se quita del carrito o caduca la sesión)
+    @Modifying
+    @Transactional
+    @Query("UPDATE Product p SET p.reservado = false, p.reservaExpira = NULL, p.version = p.version + 1 WHERE p.id = :id AND p.reservado = true AND p.compra IS NULL")
+    int liberarReserva(@Param("id") Long id);
+
+    // Asigna la compra a todos los productos del carrito que sigan reservados y disponibles
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.compra = :compra, p.reservado = false, p.reservaExpira = NULL, p.version = p.version + 1 WHERE p.id IN :ids AND p.reservado = true AND p.reservaExpira >= :ahora AND p.compra IS NULL AND p.deleted = false")
+    int asignarCompra(@Param("ids") List<Long> ids, @Param("compra") Purchase compra, @Param("ahora") LocalDateTime ahora);
+
+    // Libera de una vez todas las reservas caducadas (usa el índice idx_product_reserva)
+    @Modifying
+    @Query("UPDATE Product p SET p.reservado = false, p.reservaExpira = NULL, p.version = p.version + 1 WHERE p.reservado = true AND p.reservaExpira < :ahora")
+    int liberarReservasCaducadas(@Param("ahora") LocalDateTime ahora);
+
+    // Libera la reserva de un producto solo si sigue reservado y ya ha caducado
+    // (si se ha vuelto a reservar con una caducidad posterior no se toca)
+    @Modifying
+    @Transactional
+    @Query("UPDATE Product p SET p.reservado = false, p.reservaExpira = NULL, p.version = p.version + 1 WHERE p.id = :id AND p.reservado = true AND p.reservaExpira <= :ahora")
+    int liberarReservaCaducada(@Param("id") Long id, @Param("ahora") LocalDateTime ahora);
 }
@@ -44,4 +44,17 @@ public interface PurchaseRepository extends JpaRepository<Purchase, Long> {
 
     @Query("SELECT DISTINCT p FROM Purchase p LEFT JOIN FETCH p.productos WHERE CAST(p.fechaCompra AS date) BETWEEN :desde AND :hasta AND p.propietario.id = :propietarioId ORDER BY p.fechaCompra DESC")
     Page<Purchase> findByFechaCompraAndPropietario(@Param("desde") LocalDate desde, @Param("hasta") LocalDate hasta, @Param("propietarioId") Long propietarioId, Pageable pageable);
+
+    // Solo ids, por páginas de id descendente (keyset), para exportar sin cargar las compras en memoria
+    @Query("SELECT p.id FROM Purchase p WHERE p.id < :after ORDER BY p.id DESC")
+    List<Long> findIdsAfter(@Param("after") Long after, Pageable pageable);
+
+    @Query("SELECT p.id FROM Purchase p WHERE p.id < :after AND CAST(p.fechaCompra AS date) BETWEEN :desde AND :hasta ORDER BY p.id DESC")
+    List<Long> findIdsByFechaCompraBetweenAfter(@Param("desde") LocalDate desde, @Param("hasta") LocalDate hasta, @Param("after") Long after, Pageable pageable);
+
+    @Query("SELECT p.id FROM Purchase p WHERE p.id < :after AND p.propietario.id = :propietarioId ORDER BY p.id DESC")
+    List<Long> findIdsByPropietarioIdAfter(@Param("propietarioId") Long propietarioId, @Param("after") Long after, Pageable pageable);
+
+    @Query("SELECT p.id FROM Purchase p WHERE p.id < :after AND CAST(p.fechaCompra AS date) BETWEEN :desde AND :hasta AND p.propietario.id = :propietarioId ORDER BY p.id DESC")
+    List<Long> findIdsByFechaCompraAndPropietarioAfter(@Param("desde") LocalDate desde, @Param("hasta") LocalDate hasta, @Param("propietarioId") Long propietarioId, @Param("after") Long after, Pageable pageable);
 }
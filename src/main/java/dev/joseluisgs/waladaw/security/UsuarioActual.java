@@ -0,0 +1,17 @@
+package dev.joseluisgs.waladaw.security;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Inyecta en un parámetro de tipo User el usuario identificado en la petición
+ * Se toma del contexto de seguridad (el principal que cargó UserDetailsServiceImpl al hacer login),
+ * sin consultar la base de datos. Si no hay nadie identificado el parámetro llega a null.
+ * Es la foto del usuario en el login: vale para leer, pero para guardar cambios hay que cargar la fila.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface UsuarioActual {
+}
@@ -0,0 +1,50 @@
+package dev.joseluisgs.waladaw.security;
+
+import dev.joseluisgs.waladaw.models.User;
+import org.springframework.core.MethodParameter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * Resuelve los parámetros anotados con @UsuarioActual
+ * El usuario se obtiene una vez por petición y se guarda como atributo de la misma,
+ * así los @ModelAttribute y el handler de una misma petición comparten la instancia.
+ */
+public class UsuarioActualArgumentResolver implements HandlerMethodArgumentResolver {
+
+    private static final String ATRIBUTO = UsuarioActualArgumentResolver.class.getName() + ".USUARIO";
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(UsuarioActual.class)
+                && User.class.isAssignableFrom(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        Object usuario = webRequest.getAttribute(ATRIBUTO, RequestAttributes.SCOPE_REQUEST);
+        if (usuario == null) {
+            usuario = usuario();
+            if (usuario != null) {
+                webRequest.setAttribute(ATRIBUTO, usuario, RequestAttributes.SCOPE_REQUEST);
+            }
+        }
+        return usuario;
+    }
+
+    // Anónimo: no hay autenticación o el principal es la cadena "anonymousUser"
+    private static User usuario() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && authentication.getPrincipal() instanceof User user) {
+            return user;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,63 @@
+package dev.joseluisgs.waladaw.services;
+
+import dev.joseluisgs.waladaw.models.CarritoResumen;
+import dev.joseluisgs.waladaw.models.Product;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.annotation.RequestScope;
+
+import java.util.List;
+
+/**
+ * Carrito de la petición en curso
+ * El contador y el total salen del resumen guardado en la sesión, sin consultas. Los productos
+ * se cargan como mucho una vez por petición, y solo si alguien los pide (la página del carrito).
+ * Nunca crea la sesión.
+ */
+@Component
+@RequestScope
+public class CarritoActual {
+
+    private final ProductService productService;
+
+    private final HttpServletRequest request;
+
+    private List<Product> productos;
+
+    public CarritoActual(ProductService productService, HttpServletRequest request) {
+        this.productService = productService;
+        this.request = request;
+    }
+
+    // Resumen guardado en la sesión (null si no hay sesión o carrito)
+    public CarritoResumen resumen() {
+        HttpSession session = request.getSession(false);
+        if (session == null) return null;
+        return session.getAttribute("carrito") instanceof CarritoResumen resumen ? resumen : null;
+    }
+
+    public List<Long> ids() {
+        CarritoResumen resumen = resumen();
+        return resumen != null ? resumen.ids() : List.of();
+    }
+
+    public int count() {
+        CarritoResumen resumen = resumen();
+        return resumen != null ? resumen.count() : 0;
+    }
+
+    public List<Product> productos() {
+        if (productos == null) {
+            List<Long> ids = ids();
+            productos = ids.isEmpty() ? List.of() : productService.variosPorId(ids);
+        }
+        return productos;
+    }
+
+    // Total acumulado al añadir los productos; se revalida al pagar
+    public double total() {
+        CarritoResumen resumen = resumen();
+        return resumen != null ? resumen.total() : 0.0;
+    }
+}
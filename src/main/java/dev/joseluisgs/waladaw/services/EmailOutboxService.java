@@ -0,0 +1,173 @@
+package dev.joseluisgs.waladaw.services;
+
+import dev.joseluisgs.waladaw.models.EmailOutbox;
+import dev.joseluisgs.waladaw.models.Purchase;
+import dev.joseluisgs.waladaw.repositories.EmailOutboxRepository;
+import dev.joseluisgs.waladaw.repositories.PurchaseRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Envío de los emails de confirmación de compra desde la tabla outbox
+ * Un sondeo periódico reclama los emails pendientes y los envía con hilos virtuales,
+ * limitando los envíos simultáneos con un semáforo. Si un envío falla se reintenta
+ * con espera exponencial hasta el máximo de intentos. Un email reclamado cuyo resultado
+ * no llega a guardarse vuelve a la cola cuando caduca su reclamación (outbox.lease.seconds).
+ */
+@Service
+public class EmailOutboxService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmailOutboxService.class);
+
+    private final EmailOutboxRepository outboxRepository;
+
+    private final PurchaseRepository purchaseRepository;
+
+    private final EmailService emailService;
+
+    private final int maxConcurrencia;
+    private final int maxIntentos;
+    private final long esperaSegundos;
+    private final long reclamacionSegundos;
+
+    private final Semaphore permisos;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public EmailOutboxService(EmailOutboxRepository outboxRepository,
+                              PurchaseRepository purchaseRepository,
+                              EmailService emailService,
+                              @Value("${outbox.max-concurrency:4}") int maxConcurrencia,
+                              @Value("${outbox.max-attempts:5}") int maxIntentos,
+                              @Value("${outbox.backoff.seconds:30}") long esperaSegundos,
+                              @Value("${outbox.lease.seconds:300}") long reclamacionSegundos) {
+        this.outboxRepository = outboxRepository;
+        this.purchaseRepository = purchaseRepository;
+        this.emailService = emailService;
+        this.maxConcurrencia = maxConcurrencia;
+        this.maxIntentos = maxIntentos;
+        this.esperaSegundos = esperaSegundos;
+        this.reclamacionSegundos = reclamacionSegundos;
+        this.permisos = new Semaphore(maxConcurrencia);
+    }
+
+    // Se llama dentro de la transacción de la compra
+    public void encolar(Purchase compra, Locale locale) {
+        outboxRepository.save(new EmailOutbox(compra.getId(), locale.toLanguageTag()));
+    }
+
+    // Lo que se estaba enviando vuelve a la cola solo si su reclamación ha caducado:
+    // otro nodo puede estar enviándolo ahora mismo. Se comprueba al arrancar y periódicamente
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "#{${outbox.lease.seconds:300} * 1000 / 2}", initialDelayString = "#{${outbox.lease.seconds:300} * 1000 / 2}")
+    public void recuperar() {
+        int recuperados = outboxRepository.liberarReclamadosAntesDe(LocalDateTime.now().minusSeconds(reclamacionSegundos));
+        if (recuperados > 0) {
+            logger.info("Recuperados {} emails que quedaron a medias", recuperados);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "#{${outbox.poll.seconds:5} * 1000}")
+    public void procesar() {
+        int libres = permisos.availablePermits();
+        if (libres == 0) return;
+        LocalDateTime ahora = LocalDateTime.now();
+        List<EmailOutbox> listos = outboxRepository.findListos(EmailOutbox.Estado.PENDIENTE, ahora, PageRequest.of(0, libres));
+        for (EmailOutbox email : listos) {
+            if (outboxRepository.reclamar(email.getId(), ahora) == 0) {
+                continue;
+            }
+            if (!permisos.tryAcquire()) {
+                outboxRepository.cambiarEstado(email.getId(), EmailOutbox.Estado.ENVIANDO, EmailOutbox.Estado.PENDIENTE);
+                return;
+            }
+            executor.submit(() -> {
+                try {
+                    enviar(email);
+                } finally {
+                    try {
+                        guardar(email);
+                    } finally {
+                        permisos.release();
+                    }
+                }
+            });
+        }
+    }
+
+    private void enviar(EmailOutbox email) {
+        try {
+            Purchase compra = purchaseRepository.findByIdWithProducts(email.getCompraId())
+                    .orElseThrow(() -> new IllegalStateException("Compra no encontrada: " + email.getCompraId()));
+            emailService.enviarEmailConfirmacionCompra(compra, Locale.forLanguageTag(email.getLocale()));
+            email.setEstado(EmailOutbox.Estado.ENVIADO);
+            email.setUltimoError(null);
+        } catch (Exception e) {
+            int intentos = email.getIntentos() + 1;
+            email.setIntentos(intentos);
+            email.setUltimoError(e.getMessage());
+            if (intentos >= maxIntentos) {
+                email.setEstado(EmailOutbox.Estado.FALLIDO);
+                logger.error("Email de la compra {} descartado tras {} intentos: {}", email.getCompraId(), intentos, e.getMessage());
+            } else {
+                // Espera exponencial: 30s, 60s, 120s...
+                email.setEstado(EmailOutbox.Estado.PENDIENTE);
+                email.setSiguienteIntento(LocalDateTime.now().plusSeconds(esperaSegundos << (intentos - 1)));
+                logger.warn("Error enviando el email de la compra {} (intento {}): {}", email.getCompraId(), intentos, e.getMessage());
+            }
+        }
+    }
+
+    // Guarda el resultado del envío. Si falla, al menos se deja el estado con un UPDATE mínimo
+    // para no reenviar lo ya enviado; si tampoco se puede, se recupera al caducar la reclamación
+    private void guardar(EmailOutbox email) {
+        email.setReclamado(null);
+        try {
+            outboxRepository.save(email);
+        } catch (Exception e) {
+            logger.error("No se ha podido guardar el email de la compra {}", email.getCompraId(), e);
+            try {
+                outboxRepository.cambiarEstado(email.getId(), EmailOutbox.Estado.ENVIANDO, email.getEstado());
+            } catch (Exception ex) {
+                logger.error("El email de la compra {} queda reclamado hasta que caduque", email.getCompraId(), ex);
+            }
+        }
+    }
+
+    /**
+     * Métricas de la cola para el panel de administración
+     *
+     * @return pendientes, en envío, enviados, fallidos y envíos en curso
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (EmailOutbox.Estado estado : EmailOutbox.Estado.values()) {
+            stats.put(estado.name().toLowerCase(Locale.ROOT), outboxRepository.countByEstado(estado));
+        }
+        stats.put("enCurso", maxConcurrencia - permisos.availablePermits());
+        stats.put("maxConcurrencia", maxConcurrencia);
+        return stats;
+    }
+
+    @PreDestroy
+    public void detener() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,95 @@
+package dev.joseluisgs.waladaw.services;
+
+import dev.joseluisgs.waladaw.models.Purchase;
+import dev.joseluisgs.waladaw.storage.StorageException;
+import dev.joseluisgs.waladaw.storage.StorageProperties;
+import dev.joseluisgs.waladaw.utils.GeneradorPDF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Caché en disco de las facturas en PDF
+ * Una compra no cambia después de pagarse, así que cada factura se genera una vez y se guarda en
+ * {storage}/facturas/v{versión de plantilla}/factura_{id}.pdf. Si cambia la versión de la
+ * plantilla las facturas se regeneran bajo demanda en el nuevo directorio.
+ */
+@Service
+public class FacturaCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FacturaCacheService.class);
+
+    private final Path facturas;
+    private final Path directorio;
+
+    public FacturaCacheService(StorageProperties properties) {
+        this.facturas = Paths.get(properties.getLocation()).resolve("facturas");
+        this.directorio = facturas.resolve("v" + GeneradorPDF.VERSION_PLANTILLA);
+    }
+
+    // Borra las facturas generadas con versiones anteriores de la plantilla
+    @EventListener(ApplicationReadyEvent.class)
+    public void limpiarVersionesAntiguas() {
+        if (!Files.isDirectory(facturas)) return;
+        try (Stream<Path> versiones = Files.list(facturas)) {
+            versiones.filter(p -> !p.equals(directorio)).forEach(p -> {
+                try {
+                    FileSystemUtils.deleteRecursively(p);
+                    logger.info("Eliminada caché de facturas obsoleta: {}", p.getFileName());
+                } catch (IOException e) {
+                    logger.warn("No se pudo eliminar la caché de facturas {}: {}", p, e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("No se pudo revisar la caché de facturas: {}", e.getMessage());
+        }
+    }
+
+    // ETag fuerte: el contenido solo depende de la compra (inmutable) y de la versión de la plantilla
+    public String etag(long compraId) {
+        return "\"factura-" + compraId + "-v" + GeneradorPDF.VERSION_PLANTILLA + "\"";
+    }
+
+    /**
+     * Devuelve el PDF de la factura, generándolo y guardándolo si aún no existe
+     *
+     * @param compraId id de la compra
+     * @param compra   carga la compra con sus productos (solo se llama si hay que generarla)
+     * @return ruta del fichero PDF
+     */
+    public Path obtener(long compraId, Supplier<Purchase> compra) {
+        Path fichero = directorio.resolve("factura_" + compraId + ".pdf");
+        if (Files.isRegularFile(fichero)) {
+            return fichero;
+        }
+        try {
+            Files.createDirectories(directorio);
+            // Se escribe en un temporal y se mueve de forma atómica: nunca se sirve un PDF a medias
+            Path temporal = Files.createTempFile(directorio, "factura_" + compraId, ".tmp");
+            try {
+                Purchase c = compra.get();
+                try (OutputStream out = Files.newOutputStream(temporal)) {
+                    GeneradorPDF.factura2PDF(c, c.getProductos(), c.getTotal(), out);
+                }
+                Files.move(temporal, fichero, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporal);
+            }
+            return fichero;
+        } catch (Exception e) {
+            throw new StorageException("No se pudo generar la factura " + compraId, e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package dev.joseluisgs.waladaw.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exportación masiva de facturas en un ZIP
+ * Los ids de las compras se leen por páginas y las facturas se generan en paralelo en un
+ * pool acotado (un hilo por núcleo). Como mucho hay una ventana fija de facturas en vuelo y
+ * cada una se copia al ZIP desde la caché en disco, así que la memoria no depende del número
+ * de facturas exportadas.
+ */
+@Service
+public class FacturaExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FacturaExportService.class);
+    private static final int PAGINA_IDS = 500;
+
+    private final PurchaseService compraServicio;
+
+    private final FacturaCacheService facturaCache;
+
+    private final int ventana;
+    private final ExecutorService executor;
+
+    public FacturaExportService(PurchaseService compraServicio,
+                                FacturaCacheService facturaCache,
+                                @Value("${facturas.export.threads:0}") int hilos) {
+        this.compraServicio = compraServicio;
+        this.facturaCache = facturaCache;
+        int n = hilos > 0 ? hilos : Runtime.getRuntime().availableProcessors();
+        // Dos facturas en vuelo por hilo: el pool no se queda parado mientras se escribe el ZIP
+        this.ventana = n * 2;
+        this.executor = Executors.newFixedThreadPool(n);
+    }
+
+    /**
+     * Escribe en out un ZIP con las facturas que cumplen los filtros del listado de ventas
+     *
+     * @param desde         fecha inicial (junto con hasta) o null
+     * @param hasta         fecha final (junto con desde) o null
+     * @param propietarioId comprador o null
+     * @param out           salida (no se cierra)
+     * @return número de facturas incluidas
+     */
+    public int exportar(LocalDate desde, LocalDate hasta, Long propietarioId, OutputStream out) throws IOException {
+        Deque<Pendiente> enVuelo = new ArrayDeque<>();
+        int incluidas = 0;
+        ZipOutputStream zip = new ZipOutputStream(out);
+        // Los PDF ya van comprimidos: priorizamos velocidad
+        zip.setLevel(Deflater.BEST_SPEED);
+        try {
+            long after = Long.MAX_VALUE;
+            List<Long> ids;
+            do {
+                ids = compraServicio.findIdsAfter(desde, hasta, propietarioId, after, PAGINA_IDS);
+                for (Long id : ids) {
+                    if (enVuelo.size() >= ventana) {
+                        incluidas += escribir(zip, enVuelo.poll());
+                    }
+                    enVuelo.add(new Pendiente(id, executor.submit(
+                            () -> facturaCache.obtener(id, () -> compraServicio.findByIdWithProducts(id)))));
+                    after = id;
+                }
+            } while (ids.size() == PAGINA_IDS);
+
+            while (!enVuelo.isEmpty()) {
+                incluidas += escribir(zip, enVuelo.poll());
+            }
+            zip.finish();
+        } finally {
+            // Si el cliente corta la descarga no seguimos generando lo que queda en vuelo
+            enVuelo.forEach(p -> p.fichero().cancel(true));
+        }
+        return incluidas;
+    }
+
+    // Las entradas se escriben en orden de envío aunque se generen en paralelo
+    private int escribir(ZipOutputStream zip, Pendiente pendiente) throws IOException {
+        Path fichero;
+        try {
+            fichero = pendiente.fichero().get();
+        } catch (ExecutionException e) {
+            logger.error("No se incluye la factura {} en la exportación: {}", pendiente.id(), e.getCause().getMessage());
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Exportación interrumpida", e);
+        }
+        zip.putNextEntry(new ZipEntry("factura_" + pendiente.id() + ".pdf"));
+        Files.copy(fichero, zip);
+        zip.closeEntry();
+        return 1;
+    }
+
+    @PreDestroy
+    public void detener() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private record Pendiente(long id, Future<Path> fichero) {
+    }
+}
@@ -1,43 +1,185 @@
 package dev.joseluisgs.waladaw.services;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.joseluisgs.waladaw.storage.StorageService;
+import dev.joseluisgs.waladaw.utils.ImagenVariante;
+import jakarta.annotation.PreDestroy;
 import org.imgscalr.Scalr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
+/**
+ * Redimensionado de imágenes y generación de variantes
+ * Las imágenes nunca se decodifican a tamaño completo: primero se leen solo las dimensiones de
+ * la cabecera y luego se decodifica con submuestreo (ImageReadParam) a algo más del doble del
+ * tamaño final, que es lo que se reduce con calidad. Un semáforo limita las decodificaciones
+ * simultáneas, así que la memoria depende del tamaño de salida y no del de la subida.
+ */
 @Service
 public class ImageService {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageService.class);
     private static final int MAX_WIDTH = 800;
     private static final int MAX_HEIGHT = 600;
+    // Límite de píxeles declarados en la cabecera (evita "bombas" de descompresión)
+    private static final long MAX_PIXELES = 100_000_000L;
+    // Se decodifica al menos al doble del tamaño final para que la reducción de calidad tenga margen
+    private static final int MARGEN_SUBMUESTREO = 2;
+    // Tope de píxeles de la imagen ya decodificada (unos 32 MB en ARGB por decodificación)
+    private static final long MAX_PIXELES_DECODIFICADOS = 8_000_000L;
 
-    public byte[] redimensionarImagen(MultipartFile file) throws IOException {
+    // De la variante más grande a la más pequeña: cada una se reduce a partir de la anterior
+    private static final List<ImagenVariante> VARIANTES = Stream.of(ImagenVariante.values())
+            .sorted(Comparator.comparingInt(ImagenVariante::getAncho).reversed())
+            .toList();
+
+    private final StorageService storageService;
+
+    // Pool acotado para las variantes: si la cola se llena se descarta el trabajo y
+    // /files/{variante}/ sirve el original hasta que una petición de la variante la vuelva a encolar
+    private final ThreadPoolExecutor executor;
+
+    // Imágenes con la generación encolada o en curso, para no encolarlas dos veces
+    private final Set<String> enCurso = ConcurrentHashMap.newKeySet();
+
+    // Las que fallaron (no son imágenes, están dañadas...): no se reintentan en cada visita durante un rato
+    private final Cache<String, Boolean> fallidas = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofHours(1))
+            .build();
+
+    // Decodificaciones simultáneas (subidas y variantes)
+    private final Semaphore decodificaciones;
+
+    public ImageService(StorageService storageService,
+                        @Value("${imagenes.derivados.threads:2}") int hilos,
+                        @Value("${imagenes.derivados.queue:100}") int cola,
+                        @Value("${imagenes.decode.max-concurrent:2}") int maxDecodificaciones) {
+        this.storageService = storageService;
+        this.decodificaciones = new Semaphore(maxDecodificaciones);
+        this.executor = new ThreadPoolExecutor(hilos, hilos, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(cola),
+                Thread.ofPlatform().name("imagenes-", 0).daemon().factory());
+    }
+
+    /**
+     * Genera en segundo plano las variantes (miniatura, tarjeta, detalle) de una imagen guardada
+     * Se llama al subir y también cuando se pide una variante que no existe (imágenes de antes
+     * de las variantes o trabajos descartados con la cola llena)
+     *
+     * @param filename nombre devuelto por StorageService.store
+     */
+    public void generarDerivados(String filename) {
+        if (fallidas.getIfPresent(filename) != null || !enCurso.add(filename)) {
+            return;
+        }
         try {
-            BufferedImage originalImage = ImageIO.read(file.getInputStream());
+            executor.execute(() -> {
+                try {
+                    derivar(filename);
+                } catch (Exception e) {
+                    fallidas.put(filename, Boolean.TRUE);
+                    logger.error("Error generando las variantes de {}: {}", filename, e.getMessage());
+                } finally {
+                    enCurso.remove(filename);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            enCurso.remove(filename);
+            logger.warn("Cola de imágenes llena, se descarta la generación de variantes de {}", filename);
+        }
+    }
 
-            if (originalImage == null) {
-                throw new IOException("No se pudo leer la imagen");
+    private void derivar(String filename) throws IOException {
+        String extension = StringUtils.getFilenameExtension(filename);
+        String formato = getFormatName(extension != null ? extension.toLowerCase(Locale.ROOT) : null);
+        BufferedImage imagen = null;
+        for (ImagenVariante variante : VARIANTES) {
+            Path destino = storageService.loadVariant(filename, variante.getNombre());
+            // Con la deduplicación el mismo contenido puede llegar varias veces
+            if (Files.exists(destino)) continue;
+            if (imagen == null) {
+                try (ImageInputStream iis = ImageIO.createImageInputStream(storageService.load(filename).toFile())) {
+                    imagen = leer(iis, variante.getAncho(), variante.getAncho());
+                }
+            }
+            if (imagen.getWidth() > variante.getAncho()) {
+                imagen = Scalr.resize(imagen, Scalr.Method.QUALITY, Scalr.Mode.FIT_TO_WIDTH,
+                        variante.getAncho(), variante.getAncho(), Scalr.OP_ANTIALIAS);
             }
+            escribir(imagen, formato, destino);
+        }
+        logger.debug("Variantes generadas para {}", filename);
+    }
 
-            // Si la imagen ya es pequeña, no redimensionar
-            if (originalImage.getWidth() <= MAX_WIDTH && originalImage.getHeight() <= MAX_HEIGHT) {
+    // Se escribe en un temporal y se mueve: nunca se sirve una variante a medias
+    private void escribir(BufferedImage imagen, String formato, Path destino) throws IOException {
+        Files.createDirectories(destino.getParent());
+        Path temporal = Files.createTempFile(destino.getParent(), "variante", ".tmp");
+        try {
+            if (!ImageIO.write(imagen, formato, temporal.toFile())) {
+                throw new IOException("Formato de imagen no soportado: " + formato);
+            }
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    public byte[] redimensionarImagen(MultipartFile file) throws IOException {
+        try {
+            // Solo la cabecera: si ya es pequeña, no hace falta decodificarla
+            Dimension dimension;
+            try (InputStream in = file.getInputStream(); ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+                dimension = dimensiones(iis);
+            }
+            if (dimension.width <= MAX_WIDTH && dimension.height <= MAX_HEIGHT) {
                 return file.getBytes();
             }
 
-            // Redimensionar manteniendo el aspect ratio
-            BufferedImage resizedImage = Scalr.resize(originalImage,
-                    Scalr.Method.QUALITY,
-                    Scalr.Mode.FIT_TO_WIDTH,
-                    MAX_WIDTH,
-                    MAX_HEIGHT,
-                    Scalr.OP_ANTIALIAS);
+            BufferedImage resizedImage;
+            try (InputStream in = file.getInputStream(); ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+                BufferedImage originalImage = leer(iis, MAX_WIDTH, MAX_HEIGHT);
+                // Redimensionar manteniendo el aspect ratio (nunca se amplía: una imagen muy alta
+                // puede quedar más estrecha que MAX_WIDTH tras el submuestreo)
+                resizedImage = originalImage.getWidth() <= MAX_WIDTH ? originalImage : Scalr.resize(originalImage,
+                        Scalr.Method.QUALITY,
+                        Scalr.Mode.FIT_TO_WIDTH,
+                        MAX_WIDTH,
+                        MAX_HEIGHT,
+                        Scalr.OP_ANTIALIAS);
+            }
 
             // Convertir a bytes
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -48,7 +190,7 @@ public class ImageService {
             baos.close();
 
             logger.info("Imagen redimensionada de {}x{} a {}x{}",
-                    originalImage.getWidth(), originalImage.getHeight(),
+                    dimension.width, dimension.height,
                     resizedImage.getWidth(), resizedImage.getHeight());
 
             return imageInByte;
@@ -58,14 +200,76 @@ public class ImageService {
         }
     }
 
+    /**
+     * Dimensiones de la imagen leyendo solo la cabecera
+     *
+     * @param iis imagen
+     * @return ancho y alto
+     */
+    public Dimension dimensiones(ImageInputStream iis) throws IOException {
+        ImageReader reader = lector(iis);
+        try {
+            reader.setInput(iis, true, true);
+            return new Dimension(reader.getWidth(0), reader.getHeight(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    // Decodifica con submuestreo a algo más del doble de la caja final (ancho x alto)
+    private BufferedImage leer(ImageInputStream iis, int ancho, int alto) throws IOException {
+        ImageReader reader = lector(iis);
+        try {
+            reader.setInput(iis, true, true);
+            int anchoOriginal = reader.getWidth(0);
+            int altoOriginal = reader.getHeight(0);
+            if ((long) anchoOriginal * altoOriginal > MAX_PIXELES) {
+                throw new IOException("Imagen demasiado grande: " + anchoOriginal + "x" + altoOriginal);
+            }
+            int factor = factorSubmuestreo(anchoOriginal, altoOriginal, ancho, alto);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(factor, factor, 0, 0);
+
+            decodificaciones.acquireUninterruptibly();
+            try {
+                return reader.read(0, param);
+            } finally {
+                decodificaciones.release();
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    // Se miran las dos dimensiones frente a la caja (una imagen estrecha y muy alta también se reduce)
+    // y se sube el factor mientras lo decodificado pase del tope de píxeles
+    static int factorSubmuestreo(int anchoOriginal, int altoOriginal, int ancho, int alto) {
+        int factor = Math.max(1, Math.max(anchoOriginal / (ancho * MARGEN_SUBMUESTREO),
+                altoOriginal / (alto * MARGEN_SUBMUESTREO)));
+        while ((long) Math.ceilDiv(anchoOriginal, factor) * Math.ceilDiv(altoOriginal, factor) > MAX_PIXELES_DECODIFICADOS) {
+            factor++;
+        }
+        return factor;
+    }
+
+    private ImageReader lector(ImageInputStream iis) throws IOException {
+        Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+        if (readers == null || !readers.hasNext()) {
+            throw new IOException("No se pudo leer la imagen");
+        }
+        return readers.next();
+    }
+
     private String getFormatName(String contentType) {
         if (contentType == null) {
             return "jpg";
         }
         switch (contentType) {
             case "image/png":
+            case "png":
                 return "png";
             case "image/gif":
+            case "gif":
                 return "gif";
             case "image/jpeg":
             case "image/jpg":
@@ -73,4 +277,10 @@ public class ImageService {
                 return "jpg";
         }
     }
+
+    @PreDestroy
+    public void detener() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
 }
@@ -0,0 +1,228 @@
+package dev.joseluisgs.waladaw.services;
+
+import dev.joseluisgs.waladaw.models.Product;
+import dev.joseluisgs.waladaw.repositories.ProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Índice invertido en memoria por trigramas sobre el nombre de los productos
+ * activos y sin vender (los que aparecen en el catálogo público).
+ * Sustituye al LIKE '%x%' de la base de datos, que no puede usar índices.
+ * También se indexan los fragmentos de 1 y 2 caracteres, así las búsquedas cortas
+ * son una sola lista ya calculada y no una unión de todos los trigramas que empiezan por ellas.
+ * Las consultas se recortan (trim) antes de buscar, cosa que el LIKE original no hacía.
+ */
+@Service
+public class ProductSearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProductSearchIndex.class);
+    private static final int N = 3;
+    // El total exacto solo se cuenta hasta unas páginas más allá de la pedida (las que enlaza la paginación)
+    private static final int PAGINAS_CONTADAS = 3;
+
+    private final ProductRepository repositorio;
+
+    // fragmento de 1 a 3 caracteres -> ids de producto ordenados de mayor a menor (mismo orden que el catálogo)
+    private final Map<String, NavigableSet<Long>> postings = new HashMap<>();
+    // id -> nombre normalizado, para verificar candidatos y poder desindexar
+    private final Map<Long, String> nombres = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ProductSearchIndex(ProductRepository repositorio) {
+        this.repositorio = repositorio;
+    }
+
+    // Se reconstruye al arrancar, después de cargar los datos de prueba
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconstruir() {
+        List<Product> catalogo = repositorio.findByDeletedFalseAndCompraIsNull();
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            nombres.clear();
+            catalogo.forEach(p -> indexar(p.getId(), p.getNombre()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Índice de búsqueda construido con {} productos y {} fragmentos", nombres.size(), postings.size());
+    }
+
+    // Añade, actualiza o elimina el producto según siga o no en el catálogo
+    public void actualizar(Product p) {
+        if (p == null) return;
+        boolean enCatalogo = !Boolean.TRUE.equals(p.getDeleted()) && p.getCompra() == null;
+        lock.writeLock().lock();
+        try {
+            desindexar(p.getId());
+            if (enCatalogo) {
+                indexar(p.getId(), p.getNombre());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void eliminar(long id) {
+        lock.writeLock().lock();
+        try {
+            desindexar(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Indica si el producto sigue en el catálogo público (activo y sin vender)
+    public boolean contiene(long id) {
+        lock.readLock().lock();
+        try {
+            return nombres.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Busca los productos cuyo nombre contiene la consulta (sin distinguir mayúsculas)
+     * y devuelve la página pedida de ids en orden descendente.
+     * En consultas de 3 o más caracteres se deja de contar unas páginas después de la pedida,
+     * y entonces el total es una cota inferior
+     *
+     * @param query  texto a buscar
+     * @param offset primer resultado de la página
+     * @param size   tamaño de la página
+     * @return ids de la página, número de coincidencias y si ese número es exacto
+     */
+    public Resultado buscar(String query, long offset, int size) {
+        String q = normalizar(query);
+        List<Long> pagina = new ArrayList<>(size);
+        if (q.isEmpty()) {
+            return new Resultado(pagina, 0, true);
+        }
+        lock.readLock().lock();
+        try {
+            if (q.length() < N) {
+                // La lista del fragmento es exactamente el resultado: el total es su tamaño
+                NavigableSet<Long> ids = postings.getOrDefault(q, Collections.emptyNavigableSet());
+                ids.stream().skip(offset).limit(size).forEach(pagina::add);
+                return new Resultado(pagina, ids.size(), true);
+            }
+            long limite = offset + (long) size * PAGINAS_CONTADAS + 1;
+            long total = 0;
+            for (Long id : candidatos(q, Long.MAX_VALUE)) {
+                String nombre = nombres.get(id);
+                if (nombre == null || !nombre.contains(q)) continue;
+                if (total >= offset && pagina.size() < size) {
+                    pagina.add(id);
+                }
+                if (++total >= limite) {
+                    return new Resultado(pagina, total, false);
+                }
+            }
+            return new Resultado(pagina, total, true);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Variante por cursor: devuelve hasta size + 1 ids menores que after
+     * (el elemento extra solo indica si hay más resultados), sin contar el total
+     *
+     * @param query texto a buscar
+     * @param after último id ya servido al cliente
+     * @param size  tamaño de la página
+     * @return ids coincidentes en orden descendente
+     */
+    public List<Long> buscarDespuesDe(String query, long after, int size) {
+        String q = normalizar(query);
+        List<Long> ids = new ArrayList<>(size + 1);
+        if (q.isEmpty()) {
+            return ids;
+        }
+        lock.readLock().lock();
+        try {
+            for (Long id : candidatos(q, after)) {
+                String nombre = nombres.get(id);
+                if (nombre == null || !nombre.contains(q)) continue;
+                ids.add(id);
+                if (ids.size() > size) break;
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Candidatos menores que after en orden descendente: la lista del fragmento si la consulta
+    // es corta o la intersección de sus trigramas
+    private Iterable<Long> candidatos(String q, long after) {
+        if (q.length() < N) {
+            NavigableSet<Long> ids = postings.get(q);
+            return ids == null ? Collections.emptyList() : ids.tailSet(after, false);
+        }
+        Set<String> gramas = gramas(q, N);
+        List<NavigableSet<Long>> listas = new ArrayList<>(gramas.size());
+        for (String g : gramas) {
+            NavigableSet<Long> ids = postings.get(g);
+            if (ids == null) return Collections.emptyList();
+            listas.add(ids);
+        }
+        listas.sort(Comparator.comparingInt(Set::size));
+        NavigableSet<Long> menor = listas.getFirst().tailSet(after, false);
+        List<NavigableSet<Long>> resto = listas.subList(1, listas.size());
+        return () -> menor.stream().filter(id -> resto.stream().allMatch(s -> s.contains(id))).iterator();
+    }
+
+    private void indexar(long id, String nombre) {
+        String n = normalizar(nombre);
+        if (n.isEmpty()) return;
+        nombres.put(id, n);
+        for (String g : fragmentos(n)) {
+            postings.computeIfAbsent(g, k -> new TreeSet<>(Comparator.reverseOrder())).add(id);
+        }
+    }
+
+    private void desindexar(long id) {
+        String anterior = nombres.remove(id);
+        if (anterior == null) return;
+        for (String g : fragmentos(anterior)) {
+            NavigableSet<Long> ids = postings.get(g);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) postings.remove(g);
+            }
+        }
+    }
+
+    // Todos los fragmentos de 1 a N caracteres del nombre
+    private static Set<String> fragmentos(String texto) {
+        Set<String> res = new HashSet<>();
+        for (int n = 1; n <= N; n++) {
+            res.addAll(gramas(texto, n));
+        }
+        return res;
+    }
+
+    private static Set<String> gramas(String texto, int n) {
+        Set<String> res = new HashSet<>();
+        for (int i = 0; i + n <= texto.length(); i++) {
+            res.add(texto.substring(i, i + n));
+        }
+        return res;
+    }
+
+    private static String normalizar(String texto) {
+        return texto == null ? "" : texto.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public record Resultado(List<Long> ids, long total, boolean exacto) {
+    }
+}
@@ -1,27 +1,43 @@
 package dev.joseluisgs.waladaw.services;
 
+import dev.joseluisgs.waladaw.events.ProductEditedEvent;
+import dev.joseluisgs.waladaw.events.ProductViewedEvent;
 import dev.joseluisgs.waladaw.models.Product;
 import dev.joseluisgs.waladaw.models.ProductCategory;
 import dev.joseluisgs.waladaw.models.Purchase;
 import dev.joseluisgs.waladaw.models.User;
 import dev.joseluisgs.waladaw.repositories.ProductRepository;
 import dev.joseluisgs.waladaw.storage.StorageService;
-import jakarta.transaction.Transactional;
+import dev.joseluisgs.waladaw.utils.TrasConfirmar;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.Cache;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.interceptor.SimpleKey;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class ProductService {
 
+    private static final String CACHE = "productos";
+
     @Value("${producto.reserva.minutos:1}")
     private int minutosReserva;
 
@@ -31,32 +47,107 @@ public class ProductService {
     final
     StorageService storageService;
 
+    // Índice en memoria para las búsquedas por nombre del catálogo
+    final
+    ProductSearchIndex searchIndex;
+
+    // Para invalidar solo las claves de la caché afectadas por cada escritura
+    final
+    CacheManager cacheManager;
+
+    // Contador de visitas con escritura diferida
+    final
+    ProductViewCounter viewCounter;
+
+    final
+    ApplicationEventPublisher eventPublisher;
+
+    // Libera cada reserva a su hora exacta
+    final
+    ReservaExpiryScheduler expiryScheduler;
+
     @Autowired
-    public ProductService(ProductRepository repositorio, StorageService storageService) {
+    public ProductService(ProductRepository repositorio, StorageService storageService, ProductSearchIndex searchIndex,
+                          CacheManager cacheManager, ProductViewCounter viewCounter,
+                          ApplicationEventPublisher eventPublisher, ReservaExpiryScheduler expiryScheduler) {
         this.repositorio = repositorio;
         this.storageService = storageService;
+        this.searchIndex = searchIndex;
+        this.cacheManager = cacheManager;
+        this.viewCounter = viewCounter;
+        this.eventPublisher = eventPublisher;
+        this.expiryScheduler = expiryScheduler;
     }
 
-    @CacheEvict(value = "productos", allEntries = true)
     public Product insertar(Product p) {
-        return repositorio.save(p);
+        Product guardado = repositorio.save(p);
+        searchIndex.actualizar(guardado);
+        evictar(guardado);
+        return guardado;
     }
 
-    @CacheEvict(value = "productos", allEntries = true)
     public void borrar(long id) {
+        Product p = repositorio.findById(id).orElse(null);
         repositorio.deleteById(id);
+        searchIndex.eliminar(id);
+        evictar(p);
     }
 
-    @CacheEvict(value = "productos", allEntries = true)
     public void borrar(Product p) {
         if (!p.getImagen().isEmpty())
             storageService.delete(p.getImagen());
         repositorio.delete(p);
+        searchIndex.eliminar(p.getId());
+        evictar(p);
     }
 
-    @CacheEvict(value = "productos", allEntries = true)
     public Product editar(Product p) {
-        return repositorio.save(p);
+        // La categoría anterior se lee de la fila: la copia de la caché puede ser la misma instancia ya modificada
+        ProductCategory anterior = repositorio.findCategoriaById(p.getId()).orElse(null);
+        Product guardado = repositorio.save(p);
+        searchIndex.actualizar(guardado);
+        evictar(guardado);
+        eventPublisher.publishEvent(new ProductEditedEvent(guardado.getId(), guardado.getNombre(), guardado.getPrecio(), guardado.getImagenOrDefault()));
+        Cache cache = cacheManager.getCache(CACHE);
+        if (cache != null && anterior != null && anterior != guardado.getCategoria()) {
+            cache.evict("categoria_" + anterior.name());
+        }
+        return guardado;
+    }
+
+    // Como evictar, para cuando solo tenemos el id (actualizaciones masivas)
+    public void evictarPorId(long id) {
+        Cache cache = cacheManager.getCache(CACHE);
+        if (cache == null) return;
+        // Sin pasar por el cargador de la caché (Caffeine con recarga), que iría a la base de datos
+        // y además volvería a cachear el producto que queremos invalidar
+        Product p = cache instanceof CaffeineCache caffeine
+                && caffeine.getNativeCache().getIfPresent(id) instanceof Product cacheado ? cacheado : null;
+        if (p == null) {
+            p = repositorio.findById(id).orElse(null);
+        }
+        if (p != null) {
+            evictar(p);
+        } else {
+            cache.evict(id);
+            cache.evict(SimpleKey.EMPTY);
+            cache.evict("sinvender");
+        }
+    }
+
+    // Invalida la entrada del producto y solo las listas en las que puede aparecer
+    private void evictar(Product p) {
+        Cache cache = cacheManager.getCache(CACHE);
+        if (cache == null || p == null) return;
+        cache.evict(p.getId());
+        cache.evict(SimpleKey.EMPTY); // findAll()
+        cache.evict("sinvender");
+        if (p.getPropietario() != null)
+            cache.evict("usuario_" + p.getPropietario().getId());
+        if (p.getCategoria() != null)
+            cache.evict("categoria_" + p.getCategoria().name());
+        if (p.getCompra() != null)
+            cache.evict("compra_" + p.getCompra().getId());
     }
 
     @Cacheable(value = "productos", key = "#id")
@@ -104,12 +195,13 @@ public class ProductService {
         return repositorio.findActiveById(id);
     }
 
-    @CacheEvict(value = "productos", allEntries = true)
     public void softDelete(Long id, String deletedBy) {
         Product product = findById(id);
         if (product != null) {
             product.softDelete(deletedBy);
             repositorio.save(product);
+            searchIndex.eliminar(id);
+            evictar(product);
         }
     }
 
@@ -131,14 +223,48 @@ public class ProductService {
         return repositorio.findByCategoriaAndDeletedFalseAndCompraIsNull(categoria, pageable);
     }
 
+    // Resuelve la búsqueda en el índice en memoria y solo carga de BD los productos de la página
     public Page<Product> findByNombreContainingIgnoreCase(String nombre, Pageable pageable) {
-        return repositorio.findByNombreContainingIgnoreCaseAndDeletedFalseAndCompraIsNull(nombre, pageable);
+        ProductSearchIndex.Resultado resultado = searchIndex.buscar(nombre, pageable.getOffset(), pageable.getPageSize());
+        Map<Long, Product> porId = repositorio.findAllById(resultado.ids()).stream()
+                .collect(Collectors.toMap(Product::getId, Function.identity()));
+        List<Product> contenido = resultado.ids().stream()
+                .map(porId::get)
+                .filter(Objects::nonNull)
+                .toList();
+        return new PaginaBusqueda<>(contenido, pageable, resultado.total(), resultado.exacto());
     }
 
     public Page<Product> findByPrecioBetween(Float min, Float max, Pageable pageable) {
         return repositorio.findByPrecioBetweenAndDeletedFalseAndCompraIsNull(min, max, pageable);
     }
 
+    // Keyset pagination methods: siempre la primera "página" de lo que queda tras el cursor
+    public Slice<Product> findAllAfter(Long after, int size) {
+        return repositorio.findByDeletedFalseAndCompraIsNullAfter(after, PageRequest.of(0, size));
+    }
+
+    public Slice<Product> findByCategoriaAfter(ProductCategory categoria, Long after, int size) {
+        return repositorio.findByCategoriaAndDeletedFalseAndCompraIsNullAfter(categoria, after, PageRequest.of(0, size));
+    }
+
+    public Slice<Product> findByPrecioBetweenAfter(Float min, Float max, Long after, int size) {
+        return repositorio.findByPrecioBetweenAndDeletedFalseAndCompraIsNullAfter(min, max, after, PageRequest.of(0, size));
+    }
+
+    public Slice<Product> findByNombreContainingIgnoreCaseAfter(String nombre, Long after, int size) {
+        List<Long> ids = searchIndex.buscarDespuesDe(nombre, after, size);
+        boolean hasNext = ids.size() > size;
+        List<Long> pagina = hasNext ? ids.subList(0, size) : ids;
+        Map<Long, Product> porId = repositorio.findAllById(pagina).stream()
+                .collect(Collectors.toMap(Product::getId, Function.identity()));
+        List<Product> contenido = pagina.stream()
+                .map(porId::get)
+                .filter(Objects::nonNull)
+                .toList();
+        return new SliceImpl<>(contenido, PageRequest.of(0, size), hasNext);
+    }
+
     // Admin pagination methods
     public Page<Product> findAllActivePaginated(Pageable pageable) {
         return repositorio.findAllActivePaginated(pageable);
@@ -172,40 +298,78 @@ public class ProductService {
         return repositorio.findByAllFiltersActivePaginated(nombre, categoria, propietarioId, pageable);
     }
 
-    @CacheEvict(value = "productos", allEntries = true)
-    public void incrementarVistas(Long id) {
-        Product product = findById(id);
-        if (product != null) {
-            product.incrementViews();
-            repositorio.save(product);
+    // Las vistas se acumulan en memoria y se vuelcan por lotes (ver ProductViewCounter)
+    // y se publican como evento para las tendencias
+    public void incrementarVistas(Product p) {
+        viewCounter.registrar(p.getId());
+        eventPublisher.publishEvent(new ProductViewedEvent(p.getId(), p.getNombre(), p.getPrecio(), p.getImagenOrDefault()));
+    }
+
+    /**
+     * Asigna la compra a los productos con un único UPDATE y libera su reserva
+     * Debe llamarse dentro de la transacción de la compra: si algún producto ya no
+     * está reservado o disponible lanza una excepción y se deshace todo.
+     * El índice y la caché se actualizan después del commit
+     *
+     * @param productos productos del carrito, ya validados
+     * @param compra    compra ya persistida
+     * @param ahora     instante de referencia para la caducidad de las reservas
+     */
+    public void asignarCompra(List<Product> productos, Purchase compra, LocalDateTime ahora) {
+        List<Long> ids = productos.stream().map(Product::getId).toList();
+        if (repositorio.asignarCompra(ids, compra, ahora) != ids.size()) {
+            throw new IllegalStateException("Alguno de los productos ya no está disponible. Su reserva ha caducado o ha sido vendido.");
         }
+        TrasConfirmar.ejecutar(() -> {
+            for (Product p : productos) {
+                searchIndex.eliminar(p.getId());
+                evictar(p);
+            }
+        });
     }
 
-    public void marcarComoReservado(Long id, boolean marcado) {
-        Product product = findById(id);
-        if (product != null && marcado) {
-            product.setReservado(marcado);
-            product.setReservaExpira(LocalDateTime.now().plusMinutes(minutosReserva));
-            repositorio.save(product);
+    // Un único UPDATE condicional: de varias peticiones simultáneas solo una afecta a la fila
+    public boolean marcarComoReservado(Long id) {
+        LocalDateTime expira = LocalDateTime.now().plusMinutes(minutosReserva);
+        if (repositorio.reservar(id, expira) == 0) {
+            return false;
         }
-        else if (product != null) {
-            product.setReservado(false);
-            product.setReservaExpira(null);
-            repositorio.save(product);
+        expiryScheduler.programar(id, expira);
+        evictarPorId(id);
+        return true;
+    }
+
+    // Libera la reserva con un UPDATE condicional, sin guardar una copia de la caché con una versión antigua
+    // La caché se invalida tras el commit para no volver a cargar la fila sin confirmar
+    public boolean liberarReserva(Long id) {
+        if (repositorio.liberarReserva(id) == 0) {
+            return false;
         }
+        TrasConfirmar.ejecutar(() -> evictarPorId(id));
+        return true;
     }
 
-    @Transactional
-    public boolean marcarComoReservado(Long id) {
-        Product producto = repositorio.findById(id).orElse(null);
-        if (producto == null) return false;
-        boolean vendido = producto.getCompra() != null;
-        if (producto.isReservado() || vendido || !producto.isActive()) {
+    // Libera la reserva si ya ha caducado (condicional: si se compró o se volvió a reservar no cambia nada)
+    public boolean liberarReservaCaducada(long id) {
+        if (repositorio.liberarReservaCaducada(id, LocalDateTime.now()) == 0) {
             return false;
         }
-        producto.setReservado(true);
-        producto.setReservaExpira(LocalDateTime.now().plusMinutes(minutosReserva));
-        repositorio.save(producto);
+        evictarPorId(id);
         return true;
     }
+
+    // Página de la búsqueda por nombre: el total puede ser una cota inferior si había demasiadas coincidencias
+    public static class PaginaBusqueda<T> extends PageImpl<T> {
+
+        private final boolean totalExacto;
+
+        public PaginaBusqueda(List<T> content, Pageable pageable, long total, boolean totalExacto) {
+            super(content, pageable, total);
+            this.totalExacto = totalExacto;
+        }
+
+        public boolean isTotalExacto() {
+            return totalExacto;
+        }
+    }
 }
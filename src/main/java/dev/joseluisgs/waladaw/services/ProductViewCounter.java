@@ -0,0 +1,91 @@
+package dev.joseluisgs.waladaw.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contador de visitas con escritura diferida
+ * Las visitas se acumulan en memoria (un LongAdder por producto) y se vuelcan
+ * periódicamente a la base de datos con un único UPDATE por lotes.
+ * Solo se descuenta lo que se ha escrito con éxito, así que un fallo de BD
+ * no pierde visitas: se reintentan en el siguiente volcado.
+ */
+@Service
+public class ProductViewCounter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProductViewCounter.class);
+    private static final String UPDATE_VIEWS = "UPDATE product SET views = views + ? WHERE id = ?";
+
+    private final Map<Long, LongAdder> pendientes = new ConcurrentHashMap<>();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final CacheManager cacheManager;
+
+    public ProductViewCounter(JdbcTemplate jdbcTemplate, CacheManager cacheManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cacheManager = cacheManager;
+    }
+
+    // El incremento va dentro de compute para que el volcado no pueda quitar el contador entre medias
+    public void registrar(Long id) {
+        pendientes.compute(id, (k, adder) -> {
+            LongAdder a = adder != null ? adder : new LongAdder();
+            a.increment();
+            return a;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "#{${vistas.flush.seconds:30} * 1000}")
+    public synchronized void volcar() {
+        List<Long> ids = new ArrayList<>();
+        List<Object[]> lote = new ArrayList<>();
+        List<Long> cantidades = new ArrayList<>();
+        pendientes.forEach((id, adder) -> {
+            long n = adder.sum();
+            if (n > 0) {
+                ids.add(id);
+                cantidades.add(n);
+                lote.add(new Object[]{n, id});
+            }
+        });
+        if (lote.isEmpty()) return;
+
+        jdbcTemplate.batchUpdate(UPDATE_VIEWS, lote);
+
+        // Descontamos exactamente lo volcado; lo que llegó mientras tanto queda para la próxima vez,
+        // y los contadores que quedan a cero se quitan, así el mapa no crece con cada producto visto
+        Cache cache = cacheManager.getCache("productos");
+        for (int i = 0; i < ids.size(); i++) {
+            long n = cantidades.get(i);
+            pendientes.computeIfPresent(ids.get(i), (id, adder) -> {
+                adder.add(-n);
+                return adder.sum() == 0 ? null : adder;
+            });
+            if (cache != null) cache.evict(ids.get(i));
+        }
+        logger.debug("Volcadas visitas de {} productos", ids.size());
+    }
+
+    // En un apagado ordenado volcamos lo pendiente para no perder visitas
+    @PreDestroy
+    public void alApagar() {
+        try {
+            volcar();
+        } catch (Exception e) {
+            logger.error("No se pudieron volcar las visitas pendientes al apagar", e);
+        }
+    }
+}
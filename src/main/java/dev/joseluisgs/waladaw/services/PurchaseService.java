@@ -4,16 +4,22 @@ import dev.joseluisgs.waladaw.models.Product;
 import dev.joseluisgs.waladaw.models.Purchase;
 import dev.joseluisgs.waladaw.models.User;
 import dev.joseluisgs.waladaw.repositories.PurchaseRepository;
+import dev.joseluisgs.waladaw.utils.TrasConfirmar;
 import jakarta.persistence.EntityNotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Service
@@ -25,6 +31,12 @@ public class PurchaseService {
     @Autowired
     ProductService productoServicio;
 
+    @Autowired
+    EmailOutboxService emailOutboxService;
+
+    @Autowired
+    CacheManager cacheManager;
+
     @CacheEvict(value = "compras", allEntries = true)
     public Purchase insertar(Purchase c, User u) {
         c.setPropietario(u);
@@ -36,6 +48,52 @@ public class PurchaseService {
         return repositorio.save(c);
     }
 
+    /**
+     * Finaliza la compra de un carrito en una sola transacción:
+     * valida las reservas, inserta la compra y asigna todos los productos con un único UPDATE
+     *
+     * @param u   comprador
+     * @param ids ids de los productos del carrito
+     * @return la compra con sus productos y el total ya calculado
+     * @throws IllegalStateException si algún producto no está reservado o ya se ha vendido
+     */
+    @Transactional
+    public Purchase checkout(User u, List<Long> ids) {
+        List<Product> productos = productoServicio.variosPorId(ids);
+        LocalDateTime ahora = LocalDateTime.now();
+        if (productos.size() != ids.size()) {
+            throw new IllegalStateException("Alguno de los productos del carrito ya no existe.");
+        }
+        for (Product producto : productos) {
+            if (!producto.isReservado() || producto.getReservaExpira() == null
+                    || producto.getReservaExpira().isBefore(ahora) || producto.getCompra() != null) {
+                throw new IllegalStateException("El producto '" + producto.getNombre() + "' ya no está disponible. Su reserva ha caducado o ha sido vendido.");
+            }
+        }
+
+        Purchase c = repositorio.saveAndFlush(new Purchase(u));
+        productoServicio.asignarCompra(productos, c, ahora);
+
+        // Tras el UPDATE masivo los productos están desconectados: los completamos en memoria para el total y el email
+        productos.forEach(p -> {
+            p.setCompra(c);
+            p.setReservado(false);
+            p.setReservaExpira(null);
+        });
+        c.setProductos(productos);
+        c.calculateTotal();
+
+        // El email de confirmación se encola en la misma transacción y lo envía EmailOutboxService
+        emailOutboxService.encolar(c, LocaleContextHolder.getLocale());
+
+        // Las compras cacheadas se invalidan cuando la compra ya está confirmada
+        TrasConfirmar.ejecutar(() -> {
+            Cache cache = cacheManager.getCache("compras");
+            if (cache != null) cache.clear();
+        });
+        return c;
+    }
+
     public Product addProductoCompra(Product p, Purchase c) {
         p.setCompra(c);
         return productoServicio.editar(p);
@@ -102,4 +160,27 @@ public class PurchaseService {
     public Page<Purchase> findByFechaCompraAndPropietario(LocalDate desde, LocalDate hasta, Long propietarioId, Pageable pageable) {
         return repositorio.findByFechaCompraAndPropietario(desde, hasta, propietarioId, pageable);
     }
+
+    /**
+     * Página de ids de compras con los mismos filtros que el listado de ventas, en orden de id descendente
+     *
+     * @param desde         fecha inicial (junto con hasta) o null
+     * @param hasta         fecha final (junto con desde) o null
+     * @param propietarioId comprador o null
+     * @param after         se devuelven ids menores que este
+     * @param size          tamaño de la página
+     * @return ids de la página
+     */
+    public List<Long> findIdsAfter(LocalDate desde, LocalDate hasta, Long propietarioId, long after, int size) {
+        Pageable pageable = PageRequest.of(0, size);
+        boolean hasFechas = desde != null && hasta != null;
+        if (hasFechas && propietarioId != null) {
+            return repositorio.findIdsByFechaCompraAndPropietarioAfter(desde, hasta, propietarioId, after, pageable);
+        } else if (hasFechas) {
+            return repositorio.findIdsByFechaCompraBetweenAfter(desde, hasta, after, pageable);
+        } else if (propietarioId != null) {
+            return repositorio.findIdsByPropietarioIdAfter(propietarioId, after, pageable);
+        }
+        return repositorio.findIdsAfter(after, pageable);
+    }
 }
@@ -0,0 +1,95 @@
+package dev.joseluisgs.waladaw.services;
+
+import dev.joseluisgs.waladaw.repositories.ProductRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Libera cada reserva justo cuando caduca, sin esperar al barrido periódico
+ * Las reservas se encolan en una DelayQueue y un único hilo las va liberando
+ * a su hora. Al arrancar se reconstruye la cola con las reservas de la BD.
+ * ReservaCleanupService sigue ejecutándose como red de seguridad.
+ */
+@Service
+public class ReservaExpiryScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReservaExpiryScheduler.class);
+
+    private final ProductRepository productRepository;
+
+    // Perezoso: ProductService también depende de este planificador para programar las reservas
+    private final ProductService productService;
+
+    private final DelayQueue<Expiracion> cola = new DelayQueue<>();
+
+    private Thread worker;
+
+    public ReservaExpiryScheduler(ProductRepository productRepository, @Lazy ProductService productService) {
+        this.productRepository = productRepository;
+        this.productService = productService;
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        worker = Thread.ofPlatform().daemon().name("reserva-expiry").start(this::procesar);
+    }
+
+    @PreDestroy
+    public void detener() {
+        worker.interrupt();
+    }
+
+    // Reconstruye la cola con las reservas que ya había en la base de datos
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconstruir() {
+        productRepository.findByReservadoTrue().forEach(p -> programar(p.getId(), p.getReservaExpira()));
+        logger.info("Programadas {} caducidades de reserva", cola.size());
+    }
+
+    public void programar(long id, LocalDateTime expira) {
+        if (expira != null) {
+            cola.put(new Expiracion(id, expira));
+        }
+    }
+
+    private void procesar() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Expiracion e = cola.take();
+                // La consulta es condicional: las entradas obsoletas (producto comprado,
+                // liberado o reservado de nuevo) no cambian nada
+                if (productService.liberarReservaCaducada(e.id())) {
+                    logger.debug("Reserva del producto {} liberada", e.id());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                logger.error("Error liberando una reserva caducada", ex);
+            }
+        }
+    }
+
+    private record Expiracion(long id, LocalDateTime expira) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Duration.between(LocalDateTime.now(), expira));
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return expira.compareTo(((Expiracion) o).expira);
+        }
+    }
+}
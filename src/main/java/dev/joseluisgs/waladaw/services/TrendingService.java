@@ -0,0 +1,179 @@
+package dev.joseluisgs.waladaw.services;
+
+import dev.joseluisgs.waladaw.events.ProductEditedEvent;
+import dev.joseluisgs.waladaw.events.ProductViewedEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Productos en tendencia a partir de las visitas de la última ventana de tiempo
+ * Usa un sketch Count-Min por tramo de la ventana (ventana deslizante) y una tabla
+ * acotada de candidatos con los más vistos. La memoria no depende del tamaño del
+ * catálogo y consultar las tendencias no toca la base de datos.
+ * Los contadores son atómicos: las visitas solo se bloquean para entrar en la tabla de candidatos.
+ */
+@Service
+public class TrendingService {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 2048;
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+    // Guardamos más candidatos de los que se muestran para que el ranking sea estable
+    private static final int CANDIDATOS_POR_PUESTO = 4;
+    // Tope de productos que se pueden pedir de una vez
+    public static final int MAX_SIZE = 50;
+
+    private final ProductSearchIndex searchIndex;
+
+    private final int tramos;
+    private final int maxCandidatos;
+
+    // contadores[tramo][fila] por columna; sumas = suma de todos los tramos de la ventana
+    private final AtomicIntegerArray[][] contadores;
+    private final AtomicLongArray[] sumas = new AtomicLongArray[DEPTH];
+    private volatile int actual = 0;
+
+    // Los candidatos ya presentes se actualizan sin bloqueo; altas, bajas y sustituciones van con el monitor
+    private final Map<Long, Candidato> candidatos = new ConcurrentHashMap<>();
+    // Visitas del peor candidato con la tabla llena: por debajo no hace falta tomar el monitor
+    private volatile long umbral = 0;
+
+    public TrendingService(ProductSearchIndex searchIndex,
+                           @Value("${trending.buckets:12}") int tramos,
+                           @Value("${trending.size:8}") int size) {
+        this.searchIndex = searchIndex;
+        this.tramos = tramos;
+        // La tabla se dimensiona para el mayor top que se puede pedir, no solo para el de la portada
+        this.maxCandidatos = Math.max(size, MAX_SIZE) * CANDIDATOS_POR_PUESTO;
+        this.contadores = new AtomicIntegerArray[tramos][DEPTH];
+        for (AtomicIntegerArray[] tramo : contadores) {
+            for (int d = 0; d < DEPTH; d++) {
+                tramo[d] = new AtomicIntegerArray(WIDTH);
+            }
+        }
+        for (int d = 0; d < DEPTH; d++) {
+            sumas[d] = new AtomicLongArray(WIDTH);
+        }
+    }
+
+    @EventListener
+    public void onProductViewed(ProductViewedEvent event) {
+        AtomicIntegerArray[] tramo = contadores[actual];
+        long minimo = Long.MAX_VALUE;
+        for (int d = 0; d < DEPTH; d++) {
+            int col = columna(event.id(), d);
+            tramo[d].incrementAndGet(col);
+            minimo = Math.min(minimo, sumas[d].incrementAndGet(col));
+        }
+        long estimacion = minimo;
+
+        // Cada visita trae los datos actuales del producto, así la copia no se queda antigua
+        TrendingProduct producto = new TrendingProduct(event.id(), event.nombre(), event.precio(), event.imagen(), estimacion);
+        Candidato nuevo = new Candidato(producto, estimacion);
+        if (refrescar(nuevo)) {
+            return;
+        }
+        if (candidatos.size() >= maxCandidatos && estimacion <= umbral) {
+            return;
+        }
+        synchronized (this) {
+            if (refrescar(nuevo)) {
+                return;
+            }
+            if (candidatos.size() < maxCandidatos) {
+                candidatos.put(event.id(), nuevo);
+                return;
+            }
+            // Sustituimos al candidato con menos visitas si este lo supera
+            Map.Entry<Long, Candidato> menor = Collections.min(candidatos.entrySet(),
+                    Comparator.comparingLong(e -> e.getValue().visitas()));
+            if (estimacion > menor.getValue().visitas()) {
+                candidatos.remove(menor.getKey());
+                candidatos.put(event.id(), nuevo);
+                menor = Collections.min(candidatos.entrySet(), Comparator.comparingLong(e -> e.getValue().visitas()));
+            }
+            umbral = menor.getValue().visitas();
+        }
+    }
+
+    // Actualiza un candidato ya presente; entre hilos las visitas pueden llegar desordenadas,
+    // así que se conserva la mayor estimación
+    private boolean refrescar(Candidato nuevo) {
+        return candidatos.computeIfPresent(nuevo.producto().id(), (id, c) -> c.visitas() > nuevo.visitas()
+                ? new Candidato(nuevo.producto(), c.visitas()) : nuevo) != null;
+    }
+
+    // Al editar un producto refrescamos su copia si está entre los candidatos
+    @EventListener
+    public void onProductEdited(ProductEditedEvent event) {
+        candidatos.computeIfPresent(event.id(), (id, c) -> new Candidato(
+                new TrendingProduct(id, event.nombre(), event.precio(), event.imagen(), c.visitas()), c.visitas()));
+    }
+
+    // Avanza la ventana un tramo: se descuenta el tramo más antiguo y se recalculan los candidatos
+    @Scheduled(fixedRateString = "#{${trending.window.minutes:60} * 60 * 1000 / ${trending.buckets:12}}")
+    public synchronized void avanzarVentana() {
+        int siguiente = (actual + 1) % tramos;
+        AtomicIntegerArray[] caducado = contadores[siguiente];
+        actual = siguiente;
+        // getAndSet: una visita que llegue a la vez a este tramo se descuenta en la próxima vuelta
+        for (int d = 0; d < DEPTH; d++) {
+            for (int col = 0; col < WIDTH; col++) {
+                int visitas = caducado[d].getAndSet(col, 0);
+                if (visitas != 0) {
+                    sumas[d].addAndGet(col, -visitas);
+                }
+            }
+        }
+
+        candidatos.replaceAll((id, c) -> new Candidato(c.producto(), estimar(id)));
+        candidatos.values().removeIf(c -> c.visitas() == 0);
+        umbral = 0;
+    }
+
+    /**
+     * Los productos más vistos de la ventana que siguen en el catálogo
+     *
+     * @param n número de productos (se ajusta a [1, MAX_SIZE])
+     * @return productos ordenados por visitas estimadas
+     */
+    public List<TrendingProduct> top(int n) {
+        n = Math.clamp(n, 1, MAX_SIZE);
+        return candidatos.values().stream()
+                .filter(c -> searchIndex.contiene(c.producto().id()))
+                .sorted(Comparator.comparingLong(Candidato::visitas).reversed())
+                .limit(n)
+                .map(c -> c.producto().conVisitas(c.visitas()))
+                .toList();
+    }
+
+    private long estimar(long id) {
+        long estimacion = Long.MAX_VALUE;
+        for (int d = 0; d < DEPTH; d++) {
+            estimacion = Math.min(estimacion, sumas[d].get(columna(id, d)));
+        }
+        return estimacion;
+    }
+
+    private static int columna(long id, int fila) {
+        long h = id * SEEDS[fila];
+        h ^= (h >>> 31);
+        return (int) Math.floorMod(h, (long) WIDTH);
+    }
+
+    private record Candidato(TrendingProduct producto, long visitas) {
+    }
+
+    public record TrendingProduct(long id, String nombre, float precio, String imagen, long visitas) {
+        TrendingProduct conVisitas(long visitas) {
+            return new TrendingProduct(id, nombre, precio, imagen, visitas);
+        }
+    }
+}
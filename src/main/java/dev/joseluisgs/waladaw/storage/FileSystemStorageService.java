@@ -5,6 +5,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.stereotype.Service;
@@ -15,25 +17,54 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
+/**
+ * Almacenamiento de subidas en disco
+ * Los ficheros se reparten en dos niveles de directorios por prefijo hexadecimal
+ * ({root}/ab/cd/nombre) para que ningún directorio crezca sin límite. El prefijo se calcula
+ * a partir del nombre, así que localizar un fichero no requiere listar nada.
+ */
 @Service
 public class FileSystemStorageService implements StorageService {
 
     private static final Logger logger = LoggerFactory.getLogger(FileSystemStorageService.class);
 
+    // Nombre de un fichero deduplicado: SHA-256 en hexadecimal + extensión
+    private static final Pattern NOMBRE_DEDUPLICADO = Pattern.compile("[0-9a-f]{64}\\.[A-Za-z0-9]+");
+    private static final String REFERENCIAS = ".refs";
+
     private final Path rootLocation;
 
+    private final boolean deduplicar;
+
+    // Hasta que termina la migración de la estructura plana, un fichero puede estar aún en la raíz
+    private volatile boolean migrado = false;
+
+    // Bloqueos por nombre (repartidos) para que altas y bajas del mismo contenido no se crucen
+    private final Object[] bloqueos = new Object[64];
+
     @Value("${spring.profiles.active:dev}")
     private String activeProfile;
 
     @Autowired
     public FileSystemStorageService(StorageProperties properties) {
         this.rootLocation = Paths.get(properties.getLocation());
+        this.deduplicar = properties.isDeduplicate();
+        for (int i = 0; i < bloqueos.length; i++) {
+            bloqueos[i] = new Object();
+        }
     }
 
     @PostConstruct
@@ -57,6 +88,9 @@ public class FileSystemStorageService implements StorageService {
 
     @Override
     public String store(MultipartFile file) {
+        if (deduplicar) {
+            return storeDeduplicado(file);
+        }
         String filename = StringUtils.cleanPath(file.getOriginalFilename());
         String extension = StringUtils.getFilenameExtension(filename);
         String justFilename = filename.replace("." + extension, "");
@@ -73,10 +107,11 @@ public class FileSystemStorageService implements StorageService {
                                 + filename);
             }
             // Additional security: validate the resolved path is within rootLocation
-            Path destinationFile = this.rootLocation.resolve(storedFilename).normalize().toAbsolutePath();
-            if (!destinationFile.getParent().equals(this.rootLocation.toAbsolutePath().normalize())) {
+            Path destinationFile = ubicacion(storedFilename).normalize().toAbsolutePath();
+            if (!destinationFile.startsWith(this.rootLocation.toAbsolutePath().normalize())) {
                 throw new StorageException("Cannot store file outside current directory");
             }
+            Files.createDirectories(destinationFile.getParent());
             try (InputStream inputStream = file.getInputStream()) {
                 Files.copy(inputStream, destinationFile,
                         StandardCopyOption.REPLACE_EXISTING);
@@ -87,12 +122,94 @@ public class FileSystemStorageService implements StorageService {
         }
     }
 
+    // Calcula el SHA-256 mientras se copia la subida a un temporal; si el contenido ya existe
+    // solo se suma una referencia, si no el temporal pasa a ser el fichero definitivo
+    private String storeDeduplicado(MultipartFile file) {
+        String filename = StringUtils.cleanPath(file.getOriginalFilename());
+        String extension = StringUtils.getFilenameExtension(filename);
+        if (file.isEmpty()) {
+            throw new StorageException("Failed to store empty file " + filename);
+        }
+        if (extension == null || !extension.matches("[A-Za-z0-9]+")) {
+            throw new StorageException("Cannot store file without a valid extension " + filename);
+        }
+        Path temporal = null;
+        try {
+            Files.createDirectories(rootLocation);
+            temporal = Files.createTempFile(rootLocation, "upload", ".tmp");
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            try (InputStream inputStream = new DigestInputStream(file.getInputStream(), sha256)) {
+                Files.copy(inputStream, temporal, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String storedFilename = HexFormat.of().formatHex(sha256.digest()) + "." + extension.toLowerCase(Locale.ROOT);
+            Path destinationFile = ubicacion(storedFilename);
+            synchronized (bloqueo(storedFilename)) {
+                migrar(storedFilename);
+                Files.createDirectories(destinationFile.getParent());
+                int referencias = referencias(storedFilename);
+                if (!Files.exists(destinationFile)) {
+                    Files.move(temporal, destinationFile, StandardCopyOption.ATOMIC_MOVE);
+                    referencias = 0;
+                }
+                guardarReferencias(storedFilename, referencias + 1);
+            }
+            return storedFilename;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new StorageException("Failed to store file " + filename, e);
+        } finally {
+            if (temporal != null) {
+                try {
+                    Files.deleteIfExists(temporal);
+                } catch (IOException e) {
+                    logger.warn("No se pudo borrar el temporal {}", temporal);
+                }
+            }
+        }
+    }
+
+    // Ruta definitiva: {root}/ab/cd/nombre. Los nombres deduplicados ya son un hash y se usa su prefijo
+    private Path ubicacion(String filename) {
+        String hex = NOMBRE_DEDUPLICADO.matcher(filename).matches()
+                ? filename
+                : HexFormat.of().toHexDigits(filename.hashCode() * 0x9E3779B9);
+        return rootLocation.resolve(hex.substring(0, 2)).resolve(hex.substring(2, 4)).resolve(filename);
+    }
+
+    private Path contador(String filename) {
+        return rootLocation.resolve(REFERENCIAS).resolve(rootLocation.relativize(ubicacion(filename)));
+    }
+
+    private Object bloqueo(String filename) {
+        return bloqueos[Math.floorMod(filename.hashCode(), bloqueos.length)];
+    }
+
+    // Referencias de un contenido; un fichero sin contador cuenta como una referencia
+    private int referencias(String filename) throws IOException {
+        Path contador = contador(filename);
+        if (Files.exists(contador)) {
+            return Integer.parseInt(Files.readString(contador, StandardCharsets.US_ASCII).trim());
+        }
+        return Files.exists(ubicacion(filename)) ? 1 : 0;
+    }
+
+    private void guardarReferencias(String filename, int referencias) throws IOException {
+        Path contador = contador(filename);
+        Path directorio = Files.createDirectories(contador.getParent());
+        if (referencias <= 0) {
+            Files.deleteIfExists(contador);
+            return;
+        }
+        Path temporal = Files.createTempFile(directorio, filename, ".tmp");
+        Files.writeString(temporal, Integer.toString(referencias), StandardCharsets.US_ASCII);
+        Files.move(temporal, contador, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
     @Override
     public Stream<Path> loadAll() {
         try {
-            return Files.walk(this.rootLocation, 1)
-                    .filter(path -> !path.equals(this.rootLocation))
-                    .map(this.rootLocation::relativize);
+            // Ficheros en {root}/ab/cd/ y, mientras dure la migración, en la raíz
+            return Files.find(this.rootLocation, 3, (path, attrs) -> attrs.isRegularFile() && esSubida(path))
+                    .map(Path::getFileName);
         } catch (IOException e) {
             throw new StorageException("Failed to read stored files", e);
         }
@@ -108,7 +225,81 @@ public class FileSystemStorageService implements StorageService {
         if (filename.contains("..") || filename.contains("/") || filename.contains("\\")) {
             throw new StorageException("Cannot load file with relative or absolute path: " + filename);
         }
-        return rootLocation.resolve(filename);
+        Path file = ubicacion(filename);
+        if (!migrado && !Files.exists(file)) {
+            Path plano = rootLocation.resolve(filename);
+            if (Files.exists(plano)) {
+                return plano;
+            }
+        }
+        return file;
+    }
+
+    @Override
+    public Path loadVariant(String filename, String variant) {
+        Path file = load(filename);
+        if (file == null || variant == null || !variant.matches("[a-z0-9]+")) {
+            throw new StorageException("Cannot load variant " + variant + " of file " + filename);
+        }
+        return ubicacion(filename).resolveSibling(variant).resolve(filename);
+    }
+
+    private boolean esSubida(Path path) {
+        Path relativa = rootLocation.relativize(path);
+        String nombre = path.getFileName().toString();
+        if (nombre.endsWith(".tmp")) {
+            return false;
+        }
+        return relativa.getNameCount() == 1 || relativa.equals(rootLocation.relativize(ubicacion(nombre)));
+    }
+
+    // Migración de la estructura plana: mueve a su directorio los ficheros que sigan en la raíz.
+    // Se hace en segundo plano y mientras tanto load() encuentra los que aún no se han movido
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrarEstructuraPlana() {
+        Thread.ofPlatform().daemon().name("storage-migracion").start(() -> {
+            int movidos = 0;
+            boolean completa = true;
+            try (Stream<Path> planos = Files.list(rootLocation)) {
+                for (Path path : (Iterable<Path>) planos::iterator) {
+                    String nombre = path.getFileName().toString();
+                    if (Files.isRegularFile(path) && !nombre.endsWith(".tmp")) {
+                        try {
+                            synchronized (bloqueo(nombre)) {
+                                if (migrar(nombre)) movidos++;
+                            }
+                        } catch (IOException e) {
+                            // Se queda en la raíz: load() lo sigue encontrando y se reintenta en el próximo arranque
+                            logger.warn("No se pudo migrar el fichero {}: {}", nombre, e.getMessage());
+                            completa = false;
+                        }
+                    }
+                }
+                migrado = completa;
+                if (movidos > 0) {
+                    logger.info("📁 Migrados {} ficheros a la estructura por directorios", movidos);
+                }
+            } catch (IOException e) {
+                logger.error("No se pudo completar la migración de ficheros: " + e.getMessage());
+            }
+        });
+    }
+
+    // Mueve un fichero (y su contador) de la raíz a su directorio; llamar con el bloqueo del nombre
+    private boolean migrar(String filename) throws IOException {
+        if (migrado) return false;
+        Path plano = rootLocation.resolve(filename);
+        if (!Files.isRegularFile(plano)) return false;
+        Path destino = ubicacion(filename);
+        Files.createDirectories(destino.getParent());
+        Files.move(plano, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Path contadorPlano = rootLocation.resolve(REFERENCIAS).resolve(filename);
+        if (Files.isRegularFile(contadorPlano)) {
+            Path contador = contador(filename);
+            Files.createDirectories(contador.getParent());
+            Files.move(contadorPlano, contador, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
     }
 
     @Override
@@ -154,9 +345,33 @@ public class FileSystemStorageService implements StorageService {
         String justFilename = StringUtils.getFilename(filename);
         try {
             Path file = load(justFilename);
-            Files.deleteIfExists(file);
+            if (file == null) return;
+            synchronized (bloqueo(justFilename)) {
+                migrar(justFilename);
+                file = ubicacion(justFilename);
+                if (NOMBRE_DEDUPLICADO.matcher(justFilename).matches()) {
+                    // Contenido compartido: solo se borra con la última referencia
+                    int referencias = referencias(justFilename) - 1;
+                    guardarReferencias(justFilename, referencias);
+                    if (referencias > 0) return;
+                }
+                Files.deleteIfExists(file);
+                borrarVariantes(file);
+            }
         } catch (IOException e) {
             throw new StorageException("Error al eliminar un fichero", e);
         }
     }
+
+    // Las variantes viven en subdirectorios junto al original: {root}/ab/cd/{variante}/nombre
+    private void borrarVariantes(Path file) throws IOException {
+        if (!Files.isDirectory(file.getParent())) return;
+        try (Stream<Path> variantes = Files.list(file.getParent())) {
+            for (Path directorio : (Iterable<Path>) variantes::iterator) {
+                if (Files.isDirectory(directorio)) {
+                    Files.deleteIfExists(directorio.resolve(file.getFileName()));
+                }
+            }
+        }
+    }
 }
@@ -7,6 +7,9 @@ public class StorageProperties {
 
     private String location = "upload-dir";
 
+    // Guarda cada contenido una sola vez, con su SHA-256 como nombre y contador de referencias
+    private boolean deduplicate = false;
+
     public String getLocation() {
         return location;
     }
@@ -15,4 +18,12 @@ public class StorageProperties {
         this.location = location;
     }
 
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
 }
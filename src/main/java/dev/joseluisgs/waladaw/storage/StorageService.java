@@ -18,6 +18,9 @@ public interface StorageService {
 
     Resource loadAsResource(String filename);
 
+    // Ruta de una versión derivada (p. ej. una miniatura) de un fichero guardado; puede no existir aún
+    Path loadVariant(String filename, String variant);
+
     void delete(String filename);
 
     void deleteAll();
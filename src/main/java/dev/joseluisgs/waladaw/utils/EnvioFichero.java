@@ -0,0 +1,74 @@
+package dev.joseluisgs.waladaw.utils;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Envío de ficheros sin copiarlos por el espacio de usuario (sendfile de Tomcat)
+ * Si el conector lo soporta, basta con dejar indicados el fichero y el rango en la
+ * petición y no escribir cuerpo: Tomcat lo envía con sendfile al terminar la petición.
+ * Si no, se copia con FileChannel.transferTo, sin búferes intermedios en la aplicación.
+ */
+public class EnvioFichero {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private EnvioFichero() {
+    }
+
+    /**
+     * Delega el envío de [inicio, fin) del fichero en el sendfile del contenedor si está disponible
+     * La respuesta debe llevar Content-Length = fin - inicio y no escribir cuerpo
+     *
+     * @param request petición actual
+     * @param fichero fichero a enviar
+     * @param inicio  primer byte (incluido)
+     * @param fin     último byte (excluido)
+     * @return true si el contenedor se encarga del envío
+     */
+    public static boolean sendfile(HttpServletRequest request, Path fichero, long inicio, long fin) {
+        if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME, fichero.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START, inicio);
+        request.setAttribute(SENDFILE_END, fin);
+        return true;
+    }
+
+    /**
+     * Copia [inicio, fin) del fichero en la salida con FileChannel.transferTo
+     *
+     * @param fichero fichero a enviar
+     * @param inicio  primer byte (incluido)
+     * @param fin     último byte (excluido)
+     * @param out     salida (no se cierra)
+     */
+    public static void transferir(Path fichero, long inicio, long fin, OutputStream out) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            transferir(canal, inicio, fin, Channels.newChannel(out));
+        }
+    }
+
+    // transferTo puede enviar menos de lo pedido: repetimos hasta completar el rango
+    public static void transferir(FileChannel canal, long inicio, long fin, WritableByteChannel destino) throws IOException {
+        long posicion = inicio;
+        while (posicion < fin) {
+            long enviados = canal.transferTo(posicion, fin - posicion, destino);
+            if (enviados <= 0) {
+                throw new IOException("El fichero se ha truncado durante el envío");
+            }
+            posicion += enviados;
+        }
+    }
+}
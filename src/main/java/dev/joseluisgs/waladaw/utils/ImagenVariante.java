@@ -0,0 +1,46 @@
+package dev.joseluisgs.waladaw.utils;
+
+/**
+ * Tamaños derivados de las imágenes subidas
+ * Cada variante se sirve en /files/{variante}/{fichero} y se anuncia en el srcset
+ * de las plantillas con su ancho, para que el navegador elija la más pequeña que le sirva.
+ */
+public enum ImagenVariante {
+    THUMB(160),
+    CARD(480),
+    DETAIL(1024);
+
+    private final int ancho;
+
+    ImagenVariante(int ancho) {
+        this.ancho = ancho;
+    }
+
+    public int getAncho() {
+        return ancho;
+    }
+
+    // Nombre en la URL: thumb, card, detail
+    public String getNombre() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * srcset con todas las variantes de un fichero guardado
+     *
+     * @param fichero nombre del fichero original
+     * @return "/files/thumb/x.jpg 160w, /files/card/x.jpg 480w, ..."
+     */
+    public static String srcset(String fichero) {
+        StringBuilder sb = new StringBuilder();
+        for (ImagenVariante v : values()) {
+            if (!sb.isEmpty()) sb.append(", ");
+            sb.append("/files/").append(v.getNombre()).append('/').append(fichero).append(' ').append(v.ancho).append('w');
+        }
+        return sb.toString();
+    }
+
+    public static ImagenVariante of(String nombre) {
+        return valueOf(nombre.toUpperCase());
+    }
+}
@@ -0,0 +1,44 @@
+package dev.joseluisgs.waladaw.utils;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Importe que no se calcula hasta que se lee (formatPrice, comparaciones...)
+ */
+public class ImportePerezoso extends Number {
+
+    private final transient DoubleSupplier calculo;
+    private Double valor;
+
+    public ImportePerezoso(DoubleSupplier calculo) {
+        this.calculo = calculo;
+    }
+
+    @Override
+    public double doubleValue() {
+        if (valor == null) {
+            valor = calculo.getAsDouble();
+        }
+        return valor;
+    }
+
+    @Override
+    public int intValue() {
+        return (int) doubleValue();
+    }
+
+    @Override
+    public long longValue() {
+        return (long) doubleValue();
+    }
+
+    @Override
+    public float floatValue() {
+        return (float) doubleValue();
+    }
+
+    @Override
+    public String toString() {
+        return Double.toString(doubleValue());
+    }
+}
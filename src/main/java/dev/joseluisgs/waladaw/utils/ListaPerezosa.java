@@ -0,0 +1,37 @@
+package dev.joseluisgs.waladaw.utils;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Lista de solo lectura que no se carga hasta que alguien la lee (p. ej. una plantilla)
+ * Útil para atributos del modelo que cuestan una consulta y no todas las vistas usan
+ */
+public class ListaPerezosa<E> extends AbstractList<E> {
+
+    private final Supplier<List<E>> carga;
+    private List<E> lista;
+
+    public ListaPerezosa(Supplier<List<E>> carga) {
+        this.carga = carga;
+    }
+
+    private List<E> lista() {
+        if (lista == null) {
+            List<E> cargada = carga.get();
+            lista = cargada != null ? cargada : List.of();
+        }
+        return lista;
+    }
+
+    @Override
+    public E get(int index) {
+        return lista().get(index);
+    }
+
+    @Override
+    public int size() {
+        return lista().size();
+    }
+}
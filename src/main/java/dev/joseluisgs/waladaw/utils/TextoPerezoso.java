@@ -0,0 +1,24 @@
+package dev.joseluisgs.waladaw.utils;
+
+import java.util.function.Supplier;
+
+/**
+ * Texto que no se calcula hasta que la vista lo pinta (toString)
+ */
+public class TextoPerezoso {
+
+    private final Supplier<String> calculo;
+    private String valor;
+
+    public TextoPerezoso(Supplier<String> calculo) {
+        this.calculo = calculo;
+    }
+
+    @Override
+    public String toString() {
+        if (valor == null) {
+            valor = calculo.get();
+        }
+        return valor;
+    }
+}
@@ -0,0 +1,29 @@
+package dev.joseluisgs.waladaw.utils;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Ejecuta una acción cuando la transacción en curso se confirma (o ya, si no hay transacción)
+ * Para lo que vive fuera de la base de datos (cachés, índice en memoria): si se hiciera antes
+ * del commit, un rollback lo dejaría desincronizado y otra petición podría volver a cachear
+ * las filas sin confirmar.
+ */
+public final class TrasConfirmar {
+
+    private TrasConfirmar() {
+    }
+
+    public static void ejecutar(Runnable accion) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    accion.run();
+                }
+            });
+        } else {
+            accion.run();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package dev.joseluisgs.waladaw.controllers;
+
+import dev.joseluisgs.waladaw.storage.StorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.util.UriUtils;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Descarga de ficheros contra el servidor real: completa, con uno o varios rangos y HEAD
+ * El benchmark va etiquetado y no se ejecuta con ./gradlew test (usar ./gradlew benchmark)
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "storage.location=build/test-upload-dir")
+@AutoConfigureTestDatabase
+class FilesControllerTest {
+
+    private static final int TAMANO = 1024 * 1024;
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    StorageService storageService;
+
+    private final HttpClient cliente = HttpClient.newHttpClient();
+
+    private byte[] contenido;
+    private String filename;
+
+    @BeforeEach
+    void setUp() {
+        contenido = contenidoAleatorio(TAMANO, 42);
+        filename = storageService.store(new MockMultipartFile("file", "datos.txt", "text/plain", contenido));
+    }
+
+    @Test
+    void getDevuelveElFicheroCompleto() throws Exception {
+        HttpResponse<byte[]> respuesta = cliente.send(peticion().GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, respuesta.statusCode());
+        assertEquals("bytes", respuesta.headers().firstValue("Accept-Ranges").orElseThrow());
+        assertTrue(respuesta.headers().firstValue("ETag").isPresent());
+        assertArrayEquals(contenido, respuesta.body());
+    }
+
+    @Test
+    void unRangoDevuelveSoloEsosBytes() throws Exception {
+        HttpResponse<byte[]> respuesta = cliente.send(peticion().header("Range", "bytes=1000-1999").GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(206, respuesta.statusCode());
+        assertEquals("bytes 1000-1999/" + TAMANO, respuesta.headers().firstValue("Content-Range").orElseThrow());
+        assertEquals(1000, respuesta.headers().firstValueAsLong("Content-Length").orElseThrow());
+        assertArrayEquals(Arrays.copyOfRange(contenido, 1000, 2000), respuesta.body());
+    }
+
+    @Test
+    void variosRangosDevuelvenMultipart() throws Exception {
+        HttpResponse<String> respuesta = cliente.send(peticion().header("Range", "bytes=0-9,500-509").GET().build(),
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.US_ASCII));
+
+        assertEquals(206, respuesta.statusCode());
+        String tipo = respuesta.headers().firstValue("Content-Type").orElseThrow();
+        assertTrue(tipo.startsWith("multipart/byteranges"), tipo);
+        String boundary = tipo.substring(tipo.indexOf("boundary=") + "boundary=".length());
+
+        String cuerpo = respuesta.body();
+        assertEquals(respuesta.headers().firstValueAsLong("Content-Length").orElseThrow(), cuerpo.length());
+        assertTrue(cuerpo.contains("Content-Range: bytes 0-9/" + TAMANO + "\r\n\r\n" + ascii(0, 10)));
+        assertTrue(cuerpo.contains("Content-Range: bytes 500-509/" + TAMANO + "\r\n\r\n" + ascii(500, 510)));
+        assertTrue(cuerpo.endsWith("\r\n--" + boundary + "--\r\n"));
+    }
+
+    @Test
+    void rangoFueraDelFicheroDevuelve416() throws Exception {
+        HttpResponse<Void> respuesta = cliente.send(peticion().header("Range", "bytes=" + TAMANO + "-").GET().build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        assertEquals(416, respuesta.statusCode());
+        assertEquals("bytes */" + TAMANO, respuesta.headers().firstValue("Content-Range").orElseThrow());
+    }
+
+    @Test
+    void headSoloDevuelveCabeceras() throws Exception {
+        HttpResponse<byte[]> completo = cliente.send(peticion().method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, completo.statusCode());
+        assertEquals(TAMANO, completo.headers().firstValueAsLong("Content-Length").orElseThrow());
+        assertEquals(0, completo.body().length);
+
+        HttpResponse<byte[]> parcial = cliente.send(peticion().header("Range", "bytes=0-99")
+                        .method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(206, parcial.statusCode());
+        assertEquals(100, parcial.headers().firstValueAsLong("Content-Length").orElseThrow());
+        assertEquals(0, parcial.body().length);
+
+        // La conexión sigue siendo válida: no se ha colado ningún cuerpo tras el HEAD
+        HttpResponse<byte[]> siguiente = cliente.send(peticion().GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertArrayEquals(contenido, siguiente.body());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkDescargas() throws Exception {
+        byte[] grande = contenidoAleatorio(64 * 1024 * 1024, 7);
+        String nombre = storageService.store(new MockMultipartFile("file", "grande.bin", "application/octet-stream", grande));
+        HttpRequest completa = HttpRequest.newBuilder(uri(nombre)).GET().build();
+        HttpRequest rango = HttpRequest.newBuilder(uri(nombre)).header("Range", "bytes=1048576-2097151").GET().build();
+
+        // Calentamiento
+        for (int i = 0; i < 5; i++) {
+            cliente.send(completa, HttpResponse.BodyHandlers.discarding());
+        }
+
+        int repeticiones = 50;
+        long inicio = System.nanoTime();
+        for (int i = 0; i < repeticiones; i++) {
+            assertEquals(200, cliente.send(completa, HttpResponse.BodyHandlers.discarding()).statusCode());
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.printf("Descarga completa: %.1f MB/s%n", repeticiones * (grande.length / 1e6) / segundos);
+
+        repeticiones = 2000;
+        inicio = System.nanoTime();
+        for (int i = 0; i < repeticiones; i++) {
+            assertEquals(206, cliente.send(rango, HttpResponse.BodyHandlers.discarding()).statusCode());
+        }
+        segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.printf("Rango de 1 MiB: %.0f peticiones/s%n", repeticiones / segundos);
+    }
+
+    private HttpRequest.Builder peticion() {
+        return HttpRequest.newBuilder(uri(filename));
+    }
+
+    private URI uri(String nombre) {
+        return URI.create("http://localhost:" + port + "/files/" + UriUtils.encodePathSegment(nombre, StandardCharsets.UTF_8));
+    }
+
+    private String ascii(int desde, int hasta) {
+        return new String(contenido, desde, hasta - desde, StandardCharsets.US_ASCII);
+    }
+
+    // Letras ASCII: así los tramos del multipart se pueden comparar como texto
+    private static byte[] contenidoAleatorio(int tamano, long semilla) {
+        Random random = new Random(semilla);
+        byte[] datos = new byte[tamano];
+        for (int i = 0; i < tamano; i++) {
+            datos[i] = (byte) ('a' + random.nextInt(26));
+        }
+        return datos;
+    }
+}
@@ -0,0 +1,217 @@
+package dev.joseluisgs.waladaw.controllers;
+
+import dev.joseluisgs.waladaw.repositories.ProductRepository;
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tráfico anónimo concurrente contra la zona pública (sin cookies, como un buscador):
+ * el número de sesiones no crece con las peticiones. Solo el login crea sesión,
+ * porque genera su token CSRF antes de pintar la página.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "storage.location=build/test-upload-dir")
+@AutoConfigureTestDatabase
+class SesionesAnonimasTest {
+
+    private static final int CLIENTES = 32;
+    private static final int VUELTAS = 5;
+    private static final Pattern TOKEN = Pattern.compile("name=\"_csrf\" type=\"hidden\" value=\"([^\"]+)\"");
+
+    @TestConfiguration
+    static class ContadorSesionesConfig {
+
+        @Bean
+        ContadorSesiones contadorSesiones() {
+            return new ContadorSesiones();
+        }
+    }
+
+    static class ContadorSesiones implements HttpSessionListener {
+
+        final AtomicInteger creadas = new AtomicInteger();
+
+        @Override
+        public void sessionCreated(HttpSessionEvent se) {
+            creadas.incrementAndGet();
+        }
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    ContadorSesiones contadorSesiones;
+
+    @Autowired
+    ProductRepository productRepository;
+
+    // Sin CookieHandler: cada petición llega sin la cookie de sesión
+    private final HttpClient cliente = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void setUp() {
+        contadorSesiones.creadas.set(0);
+    }
+
+    @Test
+    void elRastreoAnonimoConcurrenteNoCreaSesiones() throws Exception {
+        List<String> rutas = rutasPublicas();
+
+        // Cada cliente recorre todas las rutas varias veces; todos empiezan a la vez
+        List<String> errores = rastrear(rutas, CLIENTES, VUELTAS, () -> {
+        });
+
+        assertTrue(errores.isEmpty(), String.join("\n", errores));
+        assertEquals(0, contadorSesiones.creadas.get(),
+                "Sesiones creadas por " + CLIENTES * VUELTAS * rutas.size() + " peticiones anónimas");
+    }
+
+    @Test
+    void soloLosLoginsCreanSesionAunqueLleguenALaVez() throws Exception {
+        int logins = 50;
+        Set<String> tokens = ConcurrentHashMap.newKeySet();
+        List<String> sesiones = new ArrayList<>();
+
+        // Primeras visitas al login mezcladas con el rastreo de la zona pública
+        ExecutorService executor = Executors.newFixedThreadPool(logins);
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Future<HttpResponse<String>>> respuestas = new ArrayList<>();
+        try {
+            for (int i = 0; i < logins; i++) {
+                respuestas.add(executor.submit(() -> {
+                    salida.await();
+                    return cliente.send(peticion("/auth/login").GET().build(), HttpResponse.BodyHandlers.ofString());
+                }));
+            }
+            List<String> errores = rastrear(rutasPublicas(), CLIENTES, 1, salida::countDown);
+            assertTrue(errores.isEmpty(), String.join("\n", errores));
+
+            for (Future<HttpResponse<String>> futura : respuestas) {
+                HttpResponse<String> respuesta = futura.get();
+                assertEquals(200, respuesta.statusCode());
+                String cookie = cookieDeSesion(respuesta);
+                assertNotNull(cookie, "El login debe crear la sesión antes de pintar la página");
+                Matcher token = TOKEN.matcher(respuesta.body());
+                assertTrue(token.find(), "El formulario de login no lleva token CSRF");
+                tokens.add(token.group(1));
+                sesiones.add(cookie);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(logins, contadorSesiones.creadas.get());
+        assertEquals(logins, tokens.size(), "Cada sesión tiene su propio token");
+
+        // El token de la página es el de la sesión: el login con él funciona
+        HttpResponse<String> primera = respuestas.getFirst().get();
+        String token = TOKEN.matcher(primera.body()).results().findFirst().orElseThrow().group(1);
+        String formulario = "username=" + URLEncoder.encode("prueba@prueba.com", StandardCharsets.UTF_8)
+                + "&password=prueba&_csrf=" + URLEncoder.encode(token, StandardCharsets.UTF_8);
+        HttpResponse<Void> login = cliente.send(peticion("/auth/login-post")
+                        .header("Cookie", sesiones.getFirst())
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString(formulario)).build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertEquals(302, login.statusCode());
+        assertTrue(login.headers().firstValue("Location").orElseThrow().endsWith("/public"));
+    }
+
+    private List<String> rutasPublicas() {
+        List<String> rutas = new ArrayList<>(List.of(
+                "/public", "/public/", "/public/index",
+                "/public?page=1", "/public?size=24",
+                "/public?q=iphone", "/public?q=mac&page=1",
+                "/public?categoria=AUDIO", "/public?minPrecio=10&maxPrecio=500",
+                "/public?after=0",
+                "/public/trending", "/public/trending?size=50"));
+        productRepository.findAll().stream()
+                .limit(20)
+                .forEach(p -> rutas.add("/public/producto/" + p.getId()));
+        return rutas;
+    }
+
+    // Lanza los clientes, ejecuta "alSalir" cuando están listos y espera a que terminen
+    private List<String> rastrear(List<String> rutas, int clientes, int vueltas, Runnable alSalir) throws Exception {
+        List<String> errores = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(clientes);
+        CountDownLatch salida = new CountDownLatch(1);
+        try {
+            List<Future<List<String>>> tareas = new ArrayList<>();
+            for (int c = 0; c < clientes; c++) {
+                int desplazamiento = c;
+                tareas.add(executor.submit(() -> {
+                    salida.await();
+                    List<String> propios = new ArrayList<>();
+                    for (int v = 0; v < vueltas; v++) {
+                        for (int i = 0; i < rutas.size(); i++) {
+                            // Cada cliente empieza por una ruta distinta
+                            String ruta = rutas.get((i + desplazamiento) % rutas.size());
+                            HttpResponse<Void> respuesta = cliente.send(peticion(ruta).GET().build(),
+                                    HttpResponse.BodyHandlers.discarding());
+                            if (respuesta.statusCode() >= 400) {
+                                propios.add(ruta + " -> " + respuesta.statusCode());
+                            }
+                            if (cookieDeSesion(respuesta) != null) {
+                                propios.add(ruta + " ha devuelto una cookie de sesión");
+                            }
+                        }
+                    }
+                    return propios;
+                }));
+            }
+            salida.countDown();
+            alSalir.run();
+            for (Future<List<String>> tarea : tareas) {
+                errores.addAll(tarea.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return errores;
+    }
+
+    private HttpRequest.Builder peticion(String ruta) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + ruta));
+    }
+
+    // "JSESSIONID=..." listo para volver a enviarlo, o null si la respuesta no crea sesión
+    private static String cookieDeSesion(HttpResponse<?> respuesta) {
+        return respuesta.headers().allValues("Set-Cookie").stream()
+                .filter(c -> c.startsWith("JSESSIONID="))
+                .map(c -> c.split(";", 2)[0])
+                .findFirst()
+                .orElse(null);
+    }
+}
@@ -0,0 +1,217 @@
+package dev.joseluisgs.waladaw.services;
+
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import dev.joseluisgs.waladaw.models.EmailOutbox;
+import dev.joseluisgs.waladaw.models.Product;
+import dev.joseluisgs.waladaw.models.Purchase;
+import dev.joseluisgs.waladaw.models.User;
+import dev.joseluisgs.waladaw.repositories.EmailOutboxRepository;
+import dev.joseluisgs.waladaw.repositories.ProductRepository;
+import dev.joseluisgs.waladaw.repositories.UserRepository;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Envío de la cola de emails contra un servidor SMTP en memoria (GreenMail)
+ * El sondeo programado se espacia para que el envío lo dispare el propio test.
+ * Para simular que el servidor SMTP no responde se para GreenMail.
+ */
+@SpringBootTest(properties = {
+        "storage.location=build/test-upload-dir",
+        "spring.mail.host=localhost",
+        "spring.mail.port=3025",
+        "spring.mail.properties.mail.smtp.auth=false",
+        "spring.mail.properties.mail.smtp.starttls.enable=false",
+        "spring.mail.properties.mail.smtp.starttls.required=false",
+        "outbox.poll.seconds=3600",
+        "outbox.max-attempts=3",
+        "outbox.backoff.seconds=1",
+        "outbox.lease.seconds=60"
+})
+@AutoConfigureTestDatabase
+class EmailOutboxServiceTest {
+
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP)
+            .withConfiguration(GreenMailConfiguration.aConfig().withDisabledAuthentication());
+
+    @Autowired
+    EmailOutboxService emailOutboxService;
+
+    @Autowired
+    PurchaseService purchaseService;
+
+    @Autowired
+    ProductService productService;
+
+    @Autowired
+    ProductRepository productRepository;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Autowired
+    EmailOutboxRepository outboxRepository;
+
+    @Test
+    void laCompraEnviaUnSoloEmailDeConfirmacion() throws Exception {
+        Purchase compra = comprar("Auriculares");
+
+        emailOutboxService.procesar();
+        assertTrue(greenMail.waitForIncomingEmail(10_000, 1), "No ha llegado el email de confirmación");
+
+        EmailOutbox email = esperar(compra.getId(), e -> e.getEstado() == EmailOutbox.Estado.ENVIADO);
+        assertEquals(0, email.getIntentos());
+        assertNull(email.getReclamado());
+
+        // Un nuevo sondeo no vuelve a enviar lo que ya está enviado
+        emailOutboxService.procesar();
+        Thread.sleep(500);
+        MimeMessage[] recibidos = greenMail.getReceivedMessages();
+        assertEquals(1, recibidos.length);
+        assertEquals(compra.getPropietario().getEmail(), recibidos[0].getAllRecipients()[0].toString());
+    }
+
+    @Test
+    void unEnvioFallidoSeReintentaConEspera() throws Exception {
+        Purchase compra = comprar("Altavoz");
+        greenMail.stop();
+
+        LocalDateTime antes = LocalDateTime.now();
+        emailOutboxService.procesar();
+        EmailOutbox fallido = esperar(compra.getId(), e -> e.getIntentos() == 1 && e.getEstado() == EmailOutbox.Estado.PENDIENTE);
+        assertNotNull(fallido.getUltimoError());
+        assertFalse(fallido.getSiguienteIntento().isBefore(antes.plusSeconds(1)), "El reintento debe esperar");
+
+        // Con el servidor de vuelta, antes de la espera no se reintenta
+        greenMail.start();
+        emailOutboxService.procesar();
+        Thread.sleep(200);
+        assertEquals(0, greenMail.getReceivedMessages().length);
+
+        esperarHasta(fallido.getSiguienteIntento());
+        emailOutboxService.procesar();
+        assertTrue(greenMail.waitForIncomingEmail(10_000, 1), "No ha llegado el email reintentado");
+        EmailOutbox enviado = esperar(compra.getId(), e -> e.getEstado() == EmailOutbox.Estado.ENVIADO);
+        assertEquals(1, enviado.getIntentos());
+        assertNull(enviado.getUltimoError());
+        assertEquals(1, greenMail.getReceivedMessages().length);
+    }
+
+    @Test
+    void seDescartaTrasElMaximoDeIntentos() throws Exception {
+        Purchase compra = comprar("Tocadiscos");
+        greenMail.stop();
+
+        // Espera de 1s y luego 2s entre intentos
+        for (int intento = 1; intento <= 3; intento++) {
+            int esperado = intento;
+            emailOutboxService.procesar();
+            EmailOutbox email = esperar(compra.getId(), e -> e.getIntentos() == esperado && e.getEstado() != EmailOutbox.Estado.ENVIANDO);
+            if (intento < 3) {
+                assertEquals(EmailOutbox.Estado.PENDIENTE, email.getEstado());
+                esperarHasta(email.getSiguienteIntento());
+            } else {
+                assertEquals(EmailOutbox.Estado.FALLIDO, email.getEstado());
+            }
+        }
+
+        // Descartado: ya no se vuelve a intentar aunque el servidor responda
+        greenMail.start();
+        emailOutboxService.procesar();
+        Thread.sleep(500);
+        assertEquals(0, greenMail.getReceivedMessages().length);
+        assertEquals(3, buscar(compra.getId()).getIntentos());
+    }
+
+    @Test
+    void soloSeRecuperanLasReclamacionesCaducadas() {
+        // Uno reclamado por otro nodo hace poco y otro cuyo nodo se cayó hace rato
+        EmailOutbox reciente = reclamado(LocalDateTime.now().minusSeconds(5));
+        EmailOutbox caducado = reclamado(LocalDateTime.now().minusMinutes(5));
+        try {
+            emailOutboxService.recuperar();
+
+            assertEquals(EmailOutbox.Estado.ENVIANDO, outboxRepository.findById(reciente.getId()).orElseThrow().getEstado());
+            EmailOutbox recuperado = outboxRepository.findById(caducado.getId()).orElseThrow();
+            assertEquals(EmailOutbox.Estado.PENDIENTE, recuperado.getEstado());
+            assertNull(recuperado.getReclamado());
+        } finally {
+            outboxRepository.deleteAll(List.of(reciente, caducado));
+        }
+    }
+
+    @Test
+    void elErrorSeRecortaAlTamanoDeLaColumna() {
+        EmailOutbox email = new EmailOutbox(-1L, "es");
+        email.setEstado(EmailOutbox.Estado.FALLIDO);
+        email.setUltimoError("x".repeat(5000));
+        try {
+            email = outboxRepository.save(email);
+            assertEquals(EmailOutbox.MAX_ERROR, outboxRepository.findById(email.getId()).orElseThrow().getUltimoError().length());
+        } finally {
+            outboxRepository.delete(email);
+        }
+    }
+
+    // Reserva y compra un producto: la compra deja su email en la outbox
+    private Purchase comprar(String nombre) {
+        User comprador = userRepository.findFirstByEmail("prueba@prueba.com");
+        User vendedor = userRepository.findFirstByEmail("otro@otro.com");
+        Product producto = productRepository.save(new Product(nombre, 25f, null, "Producto de prueba", "Audio", vendedor));
+        assertTrue(productService.marcarComoReservado(producto.getId()));
+        return purchaseService.checkout(comprador, List.of(producto.getId()));
+    }
+
+    private EmailOutbox reclamado(LocalDateTime cuando) {
+        EmailOutbox email = new EmailOutbox(-1L, "es");
+        email.setEstado(EmailOutbox.Estado.ENVIANDO);
+        email.setReclamado(cuando);
+        return outboxRepository.save(email);
+    }
+
+    private EmailOutbox buscar(long compraId) {
+        return outboxRepository.findAll().stream()
+                .filter(e -> e.getCompraId() == compraId)
+                .findFirst()
+                .orElseThrow();
+    }
+
+    // El resultado se guarda en el hilo virtual del envío, después de intentar entregar el mensaje
+    private EmailOutbox esperar(long compraId, Predicate<EmailOutbox> condicion) throws InterruptedException {
+        Instant limite = Instant.now().plusSeconds(10);
+        while (true) {
+            EmailOutbox email = buscar(compraId);
+            if (condicion.test(email)) {
+                return email;
+            }
+            assertTrue(Instant.now().isBefore(limite), "Estado inesperado: " + email);
+            Thread.sleep(50);
+        }
+    }
+
+    private void esperarHasta(LocalDateTime momento) throws InterruptedException {
+        long ms = Duration.between(LocalDateTime.now(), momento).toMillis();
+        if (ms > 0) {
+            Thread.sleep(ms + 50);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package dev.joseluisgs.waladaw.services;
+
+import dev.joseluisgs.waladaw.models.Product;
+import dev.joseluisgs.waladaw.models.User;
+import dev.joseluisgs.waladaw.repositories.ProductRepository;
+import dev.joseluisgs.waladaw.repositories.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueba de estrés de la reserva: miles de peticiones simultáneas sobre el mismo producto
+ * y solo una puede ganar (UPDATE condicional de ProductRepository.reservar)
+ */
+@SpringBootTest(properties = "storage.location=build/test-upload-dir")
+@AutoConfigureTestDatabase
+class ProductReservaConcurrencyTest {
+
+    private static final int PETICIONES = 2000;
+    private static final int HILOS = 64;
+
+    @Autowired
+    ProductService productService;
+
+    @Autowired
+    ProductRepository productRepository;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Test
+    void soloUnaReservaGanaConPeticionesSimultaneas() throws Exception {
+        User propietario = userRepository.findFirstByEmail("prueba@prueba.com");
+        assertNotNull(propietario);
+        Product producto = productRepository.save(new Product("Producto disputado", 10f, null, "Producto de prueba", "Audio", propietario));
+        long versionInicial = producto.getVersion();
+
+        // Todas las tareas esperan en la barrera de salida para llegar a la vez a la base de datos
+        CountDownLatch salida = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(HILOS);
+        List<Future<Boolean>> resultados = new ArrayList<>(PETICIONES);
+        try {
+            for (int i = 0; i < PETICIONES; i++) {
+                resultados.add(executor.submit(() -> {
+                    salida.await();
+                    return productService.marcarComoReservado(producto.getId());
+                }));
+            }
+            salida.countDown();
+
+            int ganadoras = 0;
+            for (Future<Boolean> resultado : resultados) {
+                if (resultado.get()) ganadoras++;
+            }
+            assertEquals(1, ganadoras, "Solo una petición puede reservar el producto");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Product reservado = productRepository.findById(producto.getId()).orElseThrow();
+        assertTrue(reservado.isReservado());
+        assertNotNull(reservado.getReservaExpira());
+        assertNull(reservado.getCompra());
+        // Un único UPDATE ha tocado la fila
+        assertEquals(versionInicial + 1, reservado.getVersion());
+    }
+
+    @Test
+    void liberarLaReservaNoDependeDeLaCopiaEnCache() {
+        User propietario = userRepository.findFirstByEmail("prueba@prueba.com");
+        Product producto = productRepository.save(new Product("Producto liberado", 10f, null, "Producto de prueba", "Audio", propietario));
+
+        // Copia en caché anterior a la reserva: con un save tendría una versión antigua
+        productService.findById(producto.getId());
+        assertTrue(productService.marcarComoReservado(producto.getId()));
+
+        assertTrue(productService.liberarReserva(producto.getId()));
+        assertFalse(productService.liberarReserva(producto.getId()), "Solo se libera una reserva vigente");
+
+        Product liberado = productRepository.findById(producto.getId()).orElseThrow();
+        assertFalse(liberado.isReservado());
+        assertNull(liberado.getReservaExpira());
+        assertEquals(producto.getVersion() + 2, liberado.getVersion());
+        assertFalse(productService.findById(producto.getId()).isReservado());
+
+        // Y se puede volver a reservar
+        assertTrue(productService.marcarComoReservado(producto.getId()));
+    }
+}
@@ -0,0 +1,77 @@
+package dev.joseluisgs.waladaw.services;
+
+import dev.joseluisgs.waladaw.events.ProductViewedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TrendingServiceTest {
+
+    private TrendingService trending;
+
+    @BeforeEach
+    void setUp() {
+        ProductSearchIndex searchIndex = mock(ProductSearchIndex.class);
+        when(searchIndex.contiene(anyLong())).thenReturn(true);
+        // Con la configuración por defecto (8 en portada)
+        trending = new TrendingService(searchIndex, 12, 8);
+    }
+
+    @Test
+    void elTopMaximoSePuedeLlenar() {
+        // El producto i recibe i visitas: los 50 más vistos son del 11 al 60
+        for (long id = 1; id <= 60; id++) {
+            for (int v = 0; v < id; v++) {
+                trending.onProductViewed(visita(id));
+            }
+        }
+
+        List<TrendingService.TrendingProduct> top = trending.top(TrendingService.MAX_SIZE);
+        assertEquals(TrendingService.MAX_SIZE, top.size());
+        assertEquals(60, top.getFirst().id());
+        assertEquals(11, top.getLast().id());
+        assertEquals(TrendingService.MAX_SIZE, trending.top(1000).size());
+    }
+
+    @Test
+    void lasVisitasConcurrentesNoSePierden() throws Exception {
+        int hilos = 8;
+        int visitasPorHilo = 20_000;
+        int productos = 100;
+        CountDownLatch salida = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        for (int h = 0; h < hilos; h++) {
+            executor.submit(() -> {
+                salida.await();
+                for (int i = 0; i < visitasPorHilo; i++) {
+                    trending.onProductViewed(visita(1 + i % productos));
+                }
+                return null;
+            });
+        }
+        salida.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Count-Min nunca subestima: cada producto tiene al menos sus visitas reales
+        long esperadas = (long) hilos * visitasPorHilo / productos;
+        List<TrendingService.TrendingProduct> top = trending.top(TrendingService.MAX_SIZE);
+        assertEquals(TrendingService.MAX_SIZE, top.size());
+        top.forEach(p -> assertTrue(p.visitas() >= esperadas, p.id() + ": " + p.visitas()));
+    }
+
+    private static ProductViewedEvent visita(long id) {
+        return new ProductViewedEvent(id, "Producto " + id, 10f, "/img/" + id);
+    }
+}